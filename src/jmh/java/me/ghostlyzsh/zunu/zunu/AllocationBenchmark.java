@@ -0,0 +1,61 @@
+package me.ghostlyzsh.zunu.zunu;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.concurrent.TimeUnit;
+
+// How much the workloads that make functions allocate per call of their
+// bench function. The number to look at is gc.alloc.rate.norm, so run it
+// with the GC profiler, which main adds:
+//
+//   java -cp target/benchmarks.jar me.ghostlyzsh.zunu.zunu.AllocationBenchmark
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AllocationBenchmark {
+    @Param({"lambdas", "closures"})
+    String workload;
+
+    @Param({"tree", "vm"})
+    String engine;
+
+    private Interpreter interpreter;
+    private ZunuCallable bench;
+
+    @Setup
+    public void setup() {
+        interpreter = new Interpreter();
+        bench = Workloads.load(workload, engine, interpreter);
+    }
+
+    @Benchmark
+    public Object run() {
+        return bench.call0(interpreter);
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include(AllocationBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build();
+        new Runner(options).run();
+    }
+}
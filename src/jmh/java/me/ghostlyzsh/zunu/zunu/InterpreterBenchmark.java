@@ -0,0 +1,45 @@
+package me.ghostlyzsh.zunu.zunu;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+// Runs a workload's top level once, then measures calls to its bench
+// function.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class InterpreterBenchmark {
+    @Param({"fib", "loop", "concat", "closures", "calls", "control", "lambdas"})
+    String workload;
+
+    @Param({"tree", "jit", "vm"})
+    String engine;
+
+    private Interpreter interpreter;
+    private ZunuCallable bench;
+
+    @Setup
+    public void setup() {
+        interpreter = new Interpreter();
+        bench = Workloads.load(workload, engine, interpreter);
+    }
+
+    @Benchmark
+    public Object run() {
+        return bench.call0(interpreter);
+    }
+}
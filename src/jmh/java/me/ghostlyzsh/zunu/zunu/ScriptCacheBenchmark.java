@@ -0,0 +1,60 @@
+package me.ghostlyzsh.zunu.zunu;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+// What a script costs at startup when it is parsed from source against
+// when it is read back from its cache file
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ScriptCacheBenchmark {
+    @Param({"1", "100"})
+    int copies;
+
+    private byte[] source;
+    private Path cache;
+
+    @Setup
+    public void setup() throws IOException {
+        source = Workloads.source(copies);
+        cache = Files.createTempFile("bench", ".znc");
+        ScriptCache.save(cache, source, true, parse());
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(cache);
+    }
+
+    @Benchmark
+    public List<Stmt> parse() {
+        TokenBuffer tokens = new Scanner(source, "bench.zn").scanTokens();
+        List<Stmt> statements = new Parser(tokens, "bench.zn").parse();
+        return new Optimizer().optimize(statements);
+    }
+
+    @Benchmark
+    public List<Stmt> load() {
+        return ScriptCache.load(cache, source, true);
+    }
+}
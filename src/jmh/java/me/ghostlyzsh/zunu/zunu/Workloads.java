@@ -0,0 +1,154 @@
+package me.ghostlyzsh.zunu.zunu;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+// Scripts for the benchmarks, each one the kind of code scripts spend their
+// time in. Every workload defines a bench function that does its work once.
+final class Workloads {
+    private Workloads() {}
+
+    static final String FIB =
+            "fn fib(n) {\n" +
+            "    if(n < 2) return n;\n" +
+            "    return fib(n - 1) + fib(n - 2);\n" +
+            "}\n" +
+            "fn bench() { return fib(20); }\n";
+
+    static final String LOOP =
+            "fn bench() {\n" +
+            "    let sum = 0;\n" +
+            "    let i = 0;\n" +
+            "    while(i < 100000) {\n" +
+            "        sum = sum + i * 3 - i / 2;\n" +
+            "        i = i + 1;\n" +
+            "    }\n" +
+            "    return sum;\n" +
+            "}\n";
+
+    static final String CONCAT =
+            "fn bench() {\n" +
+            "    let s = \"\";\n" +
+            "    let i = 0;\n" +
+            "    while(i < 1000) {\n" +
+            "        s = s + \"item\" + \", \";\n" +
+            "        i = i + 1;\n" +
+            "    }\n" +
+            "    return s;\n" +
+            "}\n";
+
+    static final String CLOSURES =
+            "fn counter() {\n" +
+            "    let count = 0;\n" +
+            "    return fn() {\n" +
+            "        count = count + 1;\n" +
+            "        return count;\n" +
+            "    };\n" +
+            "}\n" +
+            "fn bench() {\n" +
+            "    let total = 0;\n" +
+            "    let i = 0;\n" +
+            "    while(i < 10000) {\n" +
+            "        let next = counter();\n" +
+            "        next();\n" +
+            "        total = total + next();\n" +
+            "        i = i + 1;\n" +
+            "    }\n" +
+            "    return total;\n" +
+            "}\n";
+
+    static final String CALLS =
+            "fn add(a, b) { return a + b; }\n" +
+            "fn twice(x) { return add(x, x); }\n" +
+            "fn bench() {\n" +
+            "    let sum = 0;\n" +
+            "    let i = 0;\n" +
+            "    while(i < 100000) {\n" +
+            "        sum = add(sum, twice(i));\n" +
+            "        i = i + 1;\n" +
+            "    }\n" +
+            "    return sum;\n" +
+            "}\n";
+
+    // a function literal passed on each iteration
+    static final String LAMBDAS =
+            "fn apply(f, x) { return f(x); }\n" +
+            "fn bench() {\n" +
+            "    let sum = 0;\n" +
+            "    let i = 0;\n" +
+            "    while(i < 10000) {\n" +
+            "        sum = sum + apply(fn(x) { return x * 2; }, i);\n" +
+            "        i = i + 1;\n" +
+            "    }\n" +
+            "    return sum;\n" +
+            "}\n";
+
+    // break, continue and return from inside loops
+    static final String CONTROL =
+            "fn root(n) {\n" +
+            "    let i = 0;\n" +
+            "    while(true) {\n" +
+            "        i = i + 1;\n" +
+            "        if(i * i > n) return i;\n" +
+            "    }\n" +
+            "}\n" +
+            "fn bench() {\n" +
+            "    let sum = 0;\n" +
+            "    let i = 0;\n" +
+            "    while(i < 100000) {\n" +
+            "        i = i + 1;\n" +
+            "        if(i / 3 * 3 == i) continue;\n" +
+            "        let j = 0;\n" +
+            "        while(true) {\n" +
+            "            j = j + 1;\n" +
+            "            if(j == 3) break;\n" +
+            "        }\n" +
+            "        sum = sum + j + root(i / 1000);\n" +
+            "    }\n" +
+            "    return sum;\n" +
+            "}\n";
+
+    static String get(String name) {
+        switch(name) {
+            case "fib": return FIB;
+            case "loop": return LOOP;
+            case "concat": return CONCAT;
+            case "closures": return CLOSURES;
+            case "calls": return CALLS;
+            case "control": return CONTROL;
+            case "lambdas": return LAMBDAS;
+        }
+        throw new IllegalArgumentException("Unknown workload " + name);
+    }
+
+    // runs a workload's top level in the interpreter and returns its bench
+    // function. 'tree' is the tree walker with the JIT off, 'jit' lets it
+    // compile hot functions and 'vm' runs bytecode.
+    static ZunuCallable load(String workload, String engine, Interpreter interpreter) {
+        String name = "bench.zn";
+        JitCompiler.threshold = engine.equals("jit") ? 1000 : 0;
+
+        byte[] source = get(workload).getBytes(StandardCharsets.UTF_8);
+        List<Stmt> statements = new Parser(new Scanner(source, name).scanTokens(), name).parse();
+        new Resolver(interpreter, name).resolve(statements);
+        if(engine.equals("vm")) {
+            new VM(interpreter).interpret(BytecodeCompiler.compile(statements), name);
+        } else {
+            interpreter.interpreter(statements, name);
+        }
+
+        Globals globals = interpreter.globals;
+        return (ZunuCallable) globals.get(globals.declare("bench"), null);
+    }
+
+    // every workload, repeated to make a source of a useful size for the
+    // scanner and parser
+    static byte[] source(int copies) {
+        StringBuilder source = new StringBuilder();
+        for(int i = 0; i < copies; i++) {
+            source.append(FIB).append(LOOP).append(CONCAT).append(CLOSURES).append(CALLS)
+                    .append(CONTROL).append(LAMBDAS);
+        }
+        return source.toString().getBytes(StandardCharsets.UTF_8);
+    }
+}
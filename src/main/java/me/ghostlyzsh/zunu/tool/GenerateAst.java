@@ -13,29 +13,35 @@ public class GenerateAst {
         }
         String outputDir = args[0];
         defineAst(outputDir, "Expr", Arrays.asList(
-                "Assign   : Token name, Expr value",
-                "Binary   : Expr left, Token operator, Expr right",
-                "Call     : Expr callee, Token paren, List<Expr> arguments",
-                "AnonFn   : List<Token> params, List<Stmt> body",
+                "Assign   : Token name, Expr value | int depth, int slot, boolean cell",
+                "Binary   : Expr left, Token operator, Expr right | int state",
+                "Call     : Expr callee, Token paren, List<Expr> arguments" +
+                        " | Object[] callees, int cached",
+                "AnonFn   : List<Token> params, List<Stmt> body | int frameSize," +
+                        " int[] cells, int[] captureDepths, int[] captureSlots," +
+                        " ZunuAnonFunction instance, FunctionMetrics metrics",
+                "Concat   : List<Expr> operands, List<Token> operators",
                 "Grouping : Expr expression",
                 "Literal  : Object value",
                 "Logical  : Expr left, Token operator, Expr right",
                 "Unary    : Token operator, Expr right",
-                "Variable : Token name"
+                "Variable : Token name | int depth, int slot, boolean cell"
         ));
 
         defineAst(outputDir, "Stmt", Arrays.asList(
-                "Block      : List<Stmt> statements",
+                "Block      : List<Stmt> statements | int frameSize, int[] cells",
                 "Expression : Expr expression",
                 "Function   : Token name, List<Token> params," +
-                        " List<Stmt> body",
+                        " List<Stmt> body | boolean global, int slot, boolean cell," +
+                        " int frameSize, int[] cells, int[] captureDepths," +
+                        " int[] captureSlots, ZunuFunction instance, int calls, CompiledFunction compiled, FunctionMetrics metrics",
                 "If         : Expr condition, Stmt thenBranch," +
                         " Stmt elseBranch",
-                "While      : Expr condition, Stmt body",
-                "Return     : Token keyword, Expr value",
-                "Let        : Token name, Expr initializer",
-                "Break      :",
-                "Continue   :"
+                "While      : Token keyword, Expr condition, Stmt body",
+                "Return     : Token keyword, Expr value | boolean tail",
+                "Let        : Token name, Expr initializer | boolean global, int slot, boolean cell",
+                "Break      : Token keyword",
+                "Continue   : Token keyword"
         ));
     }
     private static void defineAst(
@@ -55,11 +61,17 @@ public class GenerateAst {
         // The AST classes.
         for (String type : types) {
             String className = type.split(":")[0].trim();
+            // fields after '|' are filled in by later passes, not the parser
+            String mutableFields = null;
+            if(type.contains("|")) {
+                mutableFields = type.split("\\|")[1].trim();
+                type = type.split("\\|")[0];
+            }
             try {
                 String fields = type.split(":")[1].trim(); // [robust]
-                defineType(writer, baseName, className, fields);
+                defineType(writer, baseName, className, fields, mutableFields);
             } catch(ArrayIndexOutOfBoundsException e) {
-                defineType(writer, baseName, className, null);
+                defineType(writer, baseName, className, null, mutableFields);
             }
         }
 
@@ -86,7 +98,7 @@ public class GenerateAst {
 
     private static void defineType(
             PrintWriter writer, String baseName,
-            String className, String fieldList) {
+            String className, String fieldList, String mutableFieldList) {
         writer.println("  static class " + className + " extends " +
                 baseName + " {");
 
@@ -116,6 +128,14 @@ public class GenerateAst {
             writer.println("    }");
         }
 
+        // Mutable fields.
+        if(mutableFieldList != null) {
+            writer.println();
+            for (String field : mutableFieldList.split(", ")) {
+                writer.println("    " + field + ";");
+            }
+        }
+
         // Visitor pattern.
         writer.println();
         writer.println("    @Override");
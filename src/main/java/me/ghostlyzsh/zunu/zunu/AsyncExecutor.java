@@ -0,0 +1,98 @@
+package me.ghostlyzsh.zunu.zunu;
+
+import org.bukkit.Server;
+import org.bukkit.plugin.java.JavaPlugin;
+
+import java.lang.reflect.Method;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Runs scripts using the async engine on worker threads, so pure
+// computation never holds up the server thread. Anything that needs the
+// Bukkit API goes back to the server thread through the sync builtin.
+//
+// An Interpreter is only ever used by one thread at a time: a script runs
+// on one worker, and a function handed to sync runs in a fork of its
+// Interpreter while the worker waits for the result.
+//
+// Cancelling a run interrupts its worker, the script stops at its next
+// watchdog step.
+class AsyncExecutor {
+    private final ExecutorService pool;
+    // the run of each script, finished ones are left until replaced
+    private final Map<String, Future<?>> runs = new ConcurrentHashMap<>();
+
+    AsyncExecutor(int threads) {
+        this.pool = newPool(threads);
+    }
+
+    private static ExecutorService newPool(int threads) {
+        // virtual threads where the JVM has them, the plugin still targets
+        // Java 8 so they are looked up reflectively
+        try {
+            Method method = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) method.invoke(null);
+        } catch(ReflectiveOperationException e) {
+            // an older JVM, use a pool of platform threads
+        }
+
+        AtomicInteger count = new AtomicInteger();
+        return Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "Zunu Worker #" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    // a reloaded script replaces the one still running under its name
+    void submit(String name, Interpreter interpreter, List<Stmt> statements) {
+        cancel(name);
+        runs.put(name, pool.submit(() -> interpreter.interpreter(statements, name)));
+    }
+
+    void cancel(String name) {
+        Future<?> run = runs.remove(name);
+        if(run != null) run.cancel(true);
+    }
+
+    void shutdown() {
+        pool.shutdownNow();
+    }
+
+    // calls a function without parameters on the server thread and waits
+    // for what it returns
+    static Object sync(Interpreter interpreter, Object function) {
+        if(!(function instanceof ZunuCallable)) {
+            throw new RuntimeError(null, "sync takes a function.");
+        }
+        ZunuCallable callable = (ZunuCallable) function;
+        if(callable.arity() != 0 && callable.arity() != -1) {
+            throw new RuntimeError(null, "sync takes a function without parameters.");
+        }
+
+        JavaPlugin plugin = JavaPlugin.getPlugin(Zunu.class);
+        Server server = plugin.getServer();
+        if(server.isPrimaryThread()) return callable.call0(interpreter);
+
+        Interpreter fork = interpreter.fork();
+        Future<Object> result = server.getScheduler().callSyncMethod(plugin, () -> callable.call0(fork));
+        try {
+            return result.get();
+        } catch(ExecutionException e) {
+            if(e.getCause() instanceof RuntimeError) throw (RuntimeError) e.getCause();
+            throw new RuntimeError(null, "sync failed: " + e.getCause());
+        } catch(CancellationException e) {
+            throw new RuntimeError(null, "The server stopped before sync could run.");
+        } catch(InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeError(null, "Interrupted while waiting for the server thread.");
+        }
+    }
+}
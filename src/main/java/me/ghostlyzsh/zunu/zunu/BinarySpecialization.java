@@ -0,0 +1,74 @@
+package me.ghostlyzsh.zunu.zunu;
+
+import java.util.concurrent.atomic.LongAdder;
+
+// States of an Expr.Binary node in the Interpreter. A node starts out
+// UNINITIALIZED, specializes to the operator and operand types it sees the
+// first time it runs, and only checks that the types still match after
+// that. If they don't it falls back to GENERIC for good.
+final class BinarySpecialization {
+    private BinarySpecialization() {}
+
+    static final int UNINITIALIZED = 0;
+    static final int INT_ADD = 1;
+    static final int INT_SUBTRACT = 2;
+    static final int INT_MULTIPLY = 3;
+    static final int INT_DIVIDE = 4;
+    static final int INT_GREATER = 5;
+    static final int INT_GREATER_EQUAL = 6;
+    static final int INT_LESS = 7;
+    static final int INT_LESS_EQUAL = 8;
+    static final int FLOAT_ADD = 9;
+    static final int FLOAT_SUBTRACT = 10;
+    static final int FLOAT_MULTIPLY = 11;
+    static final int FLOAT_DIVIDE = 12;
+    static final int FLOAT_GREATER = 13;
+    static final int FLOAT_GREATER_EQUAL = 14;
+    static final int FLOAT_LESS = 15;
+    static final int FLOAT_LESS_EQUAL = 16;
+    static final int STRING_ADD = 17;
+    static final int GENERIC = 18;
+
+    // nodes that specialized on their first run
+    static final LongAdder specialized = new LongAdder();
+    // specialized nodes that later saw other types and went generic
+    static final LongAdder respecialized = new LongAdder();
+
+    static int specialize(Expr.Binary expr, Object left, Object right) {
+        if(expr.state != UNINITIALIZED) {
+            respecialized.increment();
+            return GENERIC;
+        }
+
+        int state = GENERIC;
+        if(left instanceof Integer && right instanceof Integer) {
+            state = arithmetic(expr.operator.type, INT_ADD);
+        } else if(left instanceof Float && right instanceof Float) {
+            state = arithmetic(expr.operator.type, FLOAT_ADD);
+        } else if(ConcatString.isString(left) && ConcatString.isString(right) && expr.operator.type == TokenType.PLUS) {
+            state = STRING_ADD;
+        }
+        if(state != GENERIC) specialized.increment();
+        return state;
+    }
+
+    // the state for the operator, given the type's first (ADD) state
+    private static int arithmetic(TokenType operator, int base) {
+        switch(operator) {
+            case PLUS: return base;
+            case MINUS: return base + 1;
+            case STAR: return base + 2;
+            case SLASH: return base + 3;
+            case GREATER: return base + 4;
+            case GREATER_EQUAL: return base + 5;
+            case LESS: return base + 6;
+            case LESS_EQUAL: return base + 7;
+            default: return GENERIC;
+        }
+    }
+
+    static String summary() {
+        return specialized.sum() + " binary expressions specialized, " +
+                respecialized.sum() + " fell back to generic";
+    }
+}
@@ -1,7 +0,0 @@
-package me.ghostlyzsh.zunu.zunu;
-
-public class Break extends RuntimeException {
-    Break() {
-        super(null, null, false, false);
-    }
-}
@@ -0,0 +1,350 @@
+package me.ghostlyzsh.zunu.zunu;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Stack;
+
+// Compiles a resolved AST to Chunks for the VM. Variables keep the
+// (depth, slot) addresses the Resolver gave them, so the VM uses the same
+// frames and closures work exactly like they do in the Interpreter.
+public class BytecodeCompiler implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+    private static class Loop {
+        final int start;
+        final int frames;
+        // the while keyword, where a runaway loop is reported
+        final Token keyword;
+        final List<Integer> breaks = new ArrayList<>();
+
+        Loop(int start, int frames, Token keyword) {
+            this.start = start;
+            this.frames = frames;
+            this.keyword = keyword;
+        }
+    }
+
+    private final Chunk chunk;
+    private final Stack<Loop> loops = new Stack<>();
+    // block frames pushed inside the current function
+    private int frames = 0;
+    private int stackDepth = 0;
+
+    private BytecodeCompiler(Chunk chunk) {
+        this.chunk = chunk;
+    }
+
+    static Chunk compile(List<Stmt> statements) {
+        BytecodeCompiler compiler = new BytecodeCompiler(new Chunk("script", 0, 0));
+        compiler.compileBody(statements);
+        return compiler.chunk;
+    }
+
+    private static Chunk function(String name, List<Token> params, List<Stmt> body, int frameSize,
+                                  int[] cells, int[] captureDepths, int[] captureSlots) {
+        Chunk chunk = new Chunk(name, params.size(), frameSize);
+        chunk.captureDepths = captureDepths;
+        chunk.captureSlots = captureSlots;
+        BytecodeCompiler compiler = new BytecodeCompiler(chunk);
+        compiler.emitBoxes(cells);
+        compiler.compileBody(body);
+        return compiler.chunk;
+    }
+
+    // boxes the slots of a new frame that closures share
+    private void emitBoxes(int[] cells) {
+        for(int slot : cells) {
+            emit(OpCode.BOX, 0, null);
+            emitOperand(slot, null);
+        }
+    }
+
+    private void compileBody(List<Stmt> statements) {
+        for(Stmt statement : statements) {
+            compile(statement);
+        }
+        // falling off the end returns null
+        emit(OpCode.NULL, 1, null);
+        emit(OpCode.RETURN, -1, null);
+    }
+
+    private void compile(Stmt stmt) {
+        stmt.accept(this);
+    }
+
+    private void compile(Expr expr) {
+        expr.accept(this);
+    }
+
+    // effect is how the instruction changes the depth of the operand stack
+    private int emit(int op, int effect, Token token) {
+        stackDepth += effect;
+        if(stackDepth > chunk.maxStack) chunk.maxStack = stackDepth;
+        return chunk.write(op, token);
+    }
+
+    private void emitOperand(int operand, Token token) {
+        chunk.write(operand, token);
+    }
+
+    private int emitJump(int op, int effect) {
+        emit(op, effect, null);
+        emitOperand(-1, null);
+        return chunk.count - 1;
+    }
+
+    private void patchJump(int operand) {
+        chunk.code[operand] = chunk.count;
+    }
+
+    private void emitFrameExits(int target) {
+        for(int i = frames; i > target; i--) {
+            emit(OpCode.POP_FRAME, 0, null);
+        }
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        if(stmt.frameSize == 0) {
+            for(Stmt statement : stmt.statements) {
+                compile(statement);
+            }
+            return null;
+        }
+
+        emit(OpCode.PUSH_FRAME, 0, null);
+        emitOperand(stmt.frameSize, null);
+        emitBoxes(stmt.cells);
+        frames++;
+        for(Stmt statement : stmt.statements) {
+            compile(statement);
+        }
+        frames--;
+        emit(OpCode.POP_FRAME, 0, null);
+        return null;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        compile(stmt.expression);
+        emit(OpCode.POP, -1, null);
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+        Chunk function = function(stmt.name.lexeme(), stmt.params, stmt.body, stmt.frameSize,
+                stmt.cells, stmt.captureDepths, stmt.captureSlots);
+        emit(OpCode.CLOSURE, 1, stmt.name);
+        emitOperand(chunk.addConstant(function), stmt.name);
+        define(stmt.global, stmt.cell, stmt.slot, stmt.name);
+        return null;
+    }
+
+    private void define(boolean global, boolean cell, int slot, Token name) {
+        int opCode = global ? OpCode.DEFINE_GLOBAL : cell ? OpCode.DEFINE_CELL : OpCode.DEFINE_LOCAL;
+        emit(opCode, -1, name);
+        emitOperand(slot, name);
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        compile(stmt.condition);
+        int elseJump = emitJump(OpCode.JUMP_IF_FALSE, -1);
+        compile(stmt.thenBranch);
+        if(stmt.elseBranch == null) {
+            patchJump(elseJump);
+            return null;
+        }
+
+        int endJump = emitJump(OpCode.JUMP, 0);
+        patchJump(elseJump);
+        compile(stmt.elseBranch);
+        patchJump(endJump);
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        int start = chunk.count;
+        compile(stmt.condition);
+        int exitJump = emitJump(OpCode.JUMP_IF_FALSE, -1);
+
+        Loop loop = new Loop(start, frames, stmt.keyword);
+        loops.push(loop);
+        compile(stmt.body);
+        loops.pop();
+
+        emit(OpCode.LOOP, 0, stmt.keyword);
+        emitOperand(start, stmt.keyword);
+        patchJump(exitJump);
+        for(int jump : loop.breaks) {
+            patchJump(jump);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+        if(stmt.tail) {
+            // the VM reuses this frame when it can, the RETURN is for when it can't
+            compileCall((Expr.Call) stmt.value, OpCode.TAIL_CALL);
+        } else if(stmt.value != null) {
+            compile(stmt.value);
+        } else {
+            emit(OpCode.NULL, 1, null);
+        }
+        emit(OpCode.RETURN, -1, stmt.keyword);
+        return null;
+    }
+
+    @Override
+    public Void visitLetStmt(Stmt.Let stmt) {
+        if(stmt.initializer != null) {
+            compile(stmt.initializer);
+        } else {
+            emit(OpCode.NULL, 1, null);
+        }
+        define(stmt.global, stmt.cell, stmt.slot, stmt.name);
+        return null;
+    }
+
+    @Override
+    public Void visitBreakStmt(Stmt.Break stmt) {
+        Loop loop = loops.peek();
+        emitFrameExits(loop.frames);
+        loop.breaks.add(emitJump(OpCode.JUMP, 0));
+        return null;
+    }
+
+    @Override
+    public Void visitContinueStmt(Stmt.Continue stmt) {
+        Loop loop = loops.peek();
+        emitFrameExits(loop.frames);
+        emit(OpCode.LOOP, 0, loop.keyword);
+        emitOperand(loop.start, loop.keyword);
+        return null;
+    }
+
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr) {
+        compile(expr.value);
+        if(expr.depth < 0) {
+            emit(OpCode.SET_GLOBAL, 0, expr.name);
+            emitOperand(expr.slot, expr.name);
+        } else {
+            emit(expr.cell ? OpCode.SET_CELL : OpCode.SET_LOCAL, 0, expr.name);
+            emitOperand(expr.depth, expr.name);
+            emitOperand(expr.slot, expr.name);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr) {
+        compile(expr.left);
+        compile(expr.right);
+
+        int op;
+        switch(expr.operator.type) {
+            case GREATER: op = OpCode.GREATER; break;
+            case GREATER_EQUAL: op = OpCode.GREATER_EQUAL; break;
+            case LESS: op = OpCode.LESS; break;
+            case LESS_EQUAL: op = OpCode.LESS_EQUAL; break;
+            case BANG_EQUAL: op = OpCode.NOT_EQUAL; break;
+            case EQUAL_EQUAL: op = OpCode.EQUAL; break;
+            case MINUS: op = OpCode.SUBTRACT; break;
+            case PLUS: op = OpCode.ADD; break;
+            case SLASH: op = OpCode.DIVIDE; break;
+            case STAR: op = OpCode.MULTIPLY; break;
+            default: throw new IllegalStateException("Unknown binary operator " + expr.operator.type);
+        }
+        emit(op, -1, expr.operator);
+        return null;
+    }
+
+    @Override
+    public Void visitCallExpr(Expr.Call expr) {
+        compileCall(expr, OpCode.CALL);
+        return null;
+    }
+
+    private void compileCall(Expr.Call expr, int opCode) {
+        compile(expr.callee);
+        for(Expr argument : expr.arguments) {
+            compile(argument);
+        }
+        emit(opCode, -expr.arguments.size(), expr.paren);
+        emitOperand(expr.arguments.size(), expr.paren);
+    }
+
+    @Override
+    public Void visitAnonFnExpr(Expr.AnonFn expr) {
+        Chunk function = function(null, expr.params, expr.body, expr.frameSize,
+                expr.cells, expr.captureDepths, expr.captureSlots);
+        emit(OpCode.CLOSURE, 1, null);
+        emitOperand(chunk.addConstant(function), null);
+        return null;
+    }
+
+    // a chain of ADD, each one appends to the builder the one before made
+    @Override
+    public Void visitConcatExpr(Expr.Concat expr) {
+        compile(expr.operands.get(0));
+        for(int i = 1; i < expr.operands.size(); i++) {
+            compile(expr.operands.get(i));
+            emit(OpCode.ADD, -1, expr.operators.get(i - 1));
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr) {
+        compile(expr.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr) {
+        if(expr.value == null) {
+            emit(OpCode.NULL, 1, null);
+        } else if(expr.value.equals(true)) {
+            emit(OpCode.TRUE, 1, null);
+        } else if(expr.value.equals(false)) {
+            emit(OpCode.FALSE, 1, null);
+        } else {
+            emit(OpCode.CONSTANT, 1, null);
+            emitOperand(chunk.addConstant(expr.value), null);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(Expr.Logical expr) {
+        compile(expr.left);
+        // the jump keeps the left operand as the result, otherwise it's
+        // popped and the right operand is the result
+        int endJump = emitJump(expr.operator.type == TokenType.OR ? OpCode.OR : OpCode.AND, -1);
+        compile(expr.right);
+        patchJump(endJump);
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr) {
+        compile(expr.right);
+        emit(expr.operator.type == TokenType.BANG ? OpCode.NOT : OpCode.NEGATE, 0, expr.operator);
+        return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr) {
+        if(expr.depth < 0) {
+            emit(OpCode.GET_GLOBAL, 1, expr.name);
+            emitOperand(expr.slot, expr.name);
+        } else {
+            emit(expr.cell ? OpCode.GET_CELL : OpCode.GET_LOCAL, 1, expr.name);
+            emitOperand(expr.depth, expr.name);
+            emitOperand(expr.slot, expr.name);
+        }
+        return null;
+    }
+}
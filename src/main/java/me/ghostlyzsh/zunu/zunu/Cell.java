@@ -0,0 +1,12 @@
+package me.ghostlyzsh.zunu.zunu;
+
+// Holds a local that a closure captures and that can change after the
+// closure is made. The frame's slot and every closure that captured it
+// share the cell, so they all see assignments made through any of them.
+final class Cell {
+    Object value;
+
+    Cell(Object value) {
+        this.value = value;
+    }
+}
@@ -0,0 +1,51 @@
+package me.ghostlyzsh.zunu.zunu;
+
+import java.util.Arrays;
+
+// Bytecode of one function, or of a script's top level.
+public class Chunk {
+    final String name;
+    final int arity;
+    final int frameSize;
+    int[] code = new int[64];
+    // the token each instruction reports runtime errors at
+    Token[] tokens = new Token[64];
+    int count = 0;
+    Object[] constants = new Object[8];
+    int constantCount = 0;
+    // the deepest the operand stack gets while running this chunk
+    int maxStack = 0;
+    // where CLOSURE reads the locals the function captures, set for
+    // functions only
+    int[] captureDepths;
+    int[] captureSlots;
+    // the function made from the chunk when it captures nothing, shared by
+    // every CLOSURE that makes it
+    VmFunction instance;
+    // set the first time the function runs with metrics on
+    FunctionMetrics metrics;
+
+    Chunk(String name, int arity, int frameSize) {
+        this.name = name;
+        this.arity = arity;
+        this.frameSize = frameSize;
+    }
+
+    int write(int value, Token token) {
+        if(count == code.length) {
+            code = Arrays.copyOf(code, count * 2);
+            tokens = Arrays.copyOf(tokens, count * 2);
+        }
+        code[count] = value;
+        tokens[count] = token;
+        return count++;
+    }
+
+    int addConstant(Object value) {
+        if(constantCount == constants.length) {
+            constants = Arrays.copyOf(constants, constantCount * 2);
+        }
+        constants[constantCount] = value;
+        return constantCount++;
+    }
+}
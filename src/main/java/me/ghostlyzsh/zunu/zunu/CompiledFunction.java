@@ -0,0 +1,14 @@
+package me.ghostlyzsh.zunu.zunu;
+
+// Superclass of the classes JitCompiler generates for hot ZunuFunctions.
+// It is public because the generated classes live in their own class loader.
+public abstract class CompiledFunction {
+    // literals and tokens the generated code refers to by index
+    protected final Object[] constants;
+
+    protected CompiledFunction(Object[] constants) {
+        this.constants = constants;
+    }
+
+    public abstract Object invoke(Interpreter interpreter, Object[] arguments);
+}
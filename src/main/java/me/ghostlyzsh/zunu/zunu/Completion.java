@@ -0,0 +1,12 @@
+package me.ghostlyzsh.zunu.zunu;
+
+// How a statement finished. The tree walker returns one from every
+// statement instead of throwing to get out of a loop or a function, loops
+// and calls check it and pass on what isn't theirs. A return leaves its
+// value in Interpreter.returnValue.
+enum Completion {
+    NORMAL,
+    BREAK,
+    CONTINUE,
+    RETURN
+}
@@ -0,0 +1,95 @@
+package me.ghostlyzsh.zunu.zunu;
+
+// A string built by adding strings together, flattened into a String the
+// first time something looks at its characters. Adding to the newest
+// value built on a builder appends to that builder in place, so s = s + x
+// in a loop copies each character once instead of once per iteration.
+//
+// A value only ever sees the first length characters of its builder, so
+// older values stay the same when a later one appends. Adding to an older
+// value copies it into a builder of its own. Values can be handed to
+// another thread by sync, the builder is the lock for appending and
+// flattening.
+final class ConcatString {
+    // shorter results are plain Strings, copying them is cheaper than a
+    // builder
+    static final int MIN_LENGTH = 64;
+
+    private final StringBuilder builder;
+    private final int length;
+    private String flat;
+
+    private ConcatString(StringBuilder builder, int length) {
+        this.builder = builder;
+        this.length = length;
+    }
+
+    static boolean isString(Object value) {
+        return value instanceof String || value instanceof ConcatString;
+    }
+
+    // the String for a value, anything that isn't a ConcatString is
+    // returned as it is
+    static Object flatten(Object value) {
+        return value instanceof ConcatString ? value.toString() : value;
+    }
+
+    static int length(Object value) {
+        if(value instanceof ConcatString) return ((ConcatString) value).length;
+        return ((String) value).length();
+    }
+
+    // both operands have to be strings
+    static Object concat(Object left, Object right) {
+        // flattened first, right may share left's builder as in s + s
+        String tail = right.toString();
+        if(left instanceof ConcatString) {
+            ConcatString rope = (ConcatString) left;
+            synchronized(rope.builder) {
+                if(rope.builder.length() == rope.length) {
+                    rope.builder.append(tail);
+                    return new ConcatString(rope.builder, rope.builder.length());
+                }
+            }
+        }
+
+        String head = left.toString();
+        int length = head.length() + tail.length();
+        if(length < MIN_LENGTH) return head.concat(tail);
+        return of(new StringBuilder(length * 2).append(head).append(tail));
+    }
+
+    // takes over a builder nothing else appends to
+    static Object of(StringBuilder builder) {
+        if(builder.length() < MIN_LENGTH) return builder.toString();
+        return new ConcatString(builder, builder.length());
+    }
+
+    // whether result was made by appending to left's builder
+    static boolean appended(Object left, Object result) {
+        return left instanceof ConcatString && result instanceof ConcatString
+                && ((ConcatString) left).builder == ((ConcatString) result).builder;
+    }
+
+    @Override
+    public String toString() {
+        String flat = this.flat;
+        if(flat == null) {
+            synchronized(builder) {
+                flat = builder.substring(0, length);
+            }
+            this.flat = flat;
+        }
+        return flat;
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        return isString(other) && toString().equals(other.toString());
+    }
+
+    @Override
+    public int hashCode() {
+        return toString().hashCode();
+    }
+}
@@ -1,7 +0,0 @@
-package me.ghostlyzsh.zunu.zunu;
-
-public class Continue extends RuntimeException{
-    Continue() {
-        super(null, null, false, false);
-    }
-}
@@ -0,0 +1,11 @@
+package me.ghostlyzsh.zunu.zunu;
+
+// How a script is executed, chosen per script in config.yml
+public enum Engine {
+    // walk the AST with the Interpreter
+    TREE,
+    // compile to bytecode and run it on the VM
+    VM,
+    // walk the AST on a worker thread instead of the server thread
+    ASYNC
+}
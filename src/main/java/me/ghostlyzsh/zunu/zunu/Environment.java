@@ -1,46 +1,64 @@
 package me.ghostlyzsh.zunu.zunu;
 
-import java.util.HashMap;
-import java.util.Map;
-
 public class Environment {
     final Environment enclosing;
-    private final Map<String, Object> values = new HashMap<>();
+    // sized by the Resolver, every local is addressed by (depth, slot)
+    final Object[] slots;
 
-    Environment() {
-        enclosing = null;
+    Environment(Environment enclosing, int size) {
+        this.enclosing = enclosing;
+        this.slots = new Object[size];
     }
 
-    Environment(Environment enclosing) {
-        this.enclosing = enclosing;
+    Object getAt(int depth, int slot) {
+        return ancestor(depth).slots[slot];
     }
 
-    public Object get(Token name) {
-        if(values.containsKey(name.lexeme)) {
-            return values.get(name.lexeme);
-        }
+    void assignAt(int depth, int slot, Object value) {
+        ancestor(depth).slots[slot] = value;
+    }
 
-        if(enclosing != null) return enclosing.get(name);
+    void define(int slot, Object value) {
+        slots[slot] = value;
+    }
 
-        throw new RuntimeError(name, "Undefined variable '" + name.lexeme + "'.");
+    // locals the Resolver boxed are read and written through their Cell
+    Object getCell(int depth, int slot) {
+        return ((Cell) ancestor(depth).slots[slot]).value;
     }
 
-    void assign(Token name, Object value) {
-        if(values.containsKey(name.lexeme)) {
-            values.put(name.lexeme, value);
-            return;
-        }
+    void assignCell(int depth, int slot, Object value) {
+        ((Cell) ancestor(depth).slots[slot]).value = value;
+    }
+
+    void defineCell(int slot, Object value) {
+        ((Cell) slots[slot]).value = value;
+    }
 
-        if(enclosing != null) {
-            enclosing.assign(name, value);
-            return;
+    // gives each boxed slot of a new frame its cell, a parameter's cell
+    // starts out holding the argument
+    void box(int[] cells) {
+        for(int slot : cells) {
+            slots[slot] = new Cell(slots[slot]);
         }
+    }
 
-        throw new RuntimeError(name,
-                "Undefined variable '" + name.lexeme + "'");
+    // the frame a closure keeps instead of the whole chain it was made in,
+    // holding only the locals it uses, or null when it uses none
+    static Environment capture(Environment environment, int[] depths, int[] slots) {
+        if(depths.length == 0) return null;
+        Environment captured = new Environment(null, depths.length);
+        for(int i = 0; i < depths.length; i++) {
+            captured.slots[i] = environment.ancestor(depths[i]).slots[slots[i]];
+        }
+        return captured;
     }
 
-    public void define(String name, Object value) {
-        values.put(name, value);
+    private Environment ancestor(int depth) {
+        Environment environment = this;
+        for(int i = 0; i < depth; i++) {
+            environment = environment.enclosing;
+        }
+        return environment;
     }
 }
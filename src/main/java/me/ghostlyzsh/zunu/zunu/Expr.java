@@ -8,6 +8,7 @@ abstract class Expr {
     R visitBinaryExpr(Binary expr);
     R visitCallExpr(Call expr);
     R visitAnonFnExpr(AnonFn expr);
+    R visitConcatExpr(Concat expr);
     R visitGroupingExpr(Grouping expr);
     R visitLiteralExpr(Literal expr);
     R visitLogicalExpr(Logical expr);
@@ -23,6 +24,10 @@ abstract class Expr {
     final Token name;
     final Expr value;
 
+    int depth;
+    int slot;
+    boolean cell;
+
     @Override
     <R> R accept(Visitor<R> visitor) {
       return visitor.visitAssignExpr(this);
@@ -39,6 +44,8 @@ abstract class Expr {
     final Token operator;
     final Expr right;
 
+    int state;
+
     @Override
     <R> R accept(Visitor<R> visitor) {
       return visitor.visitBinaryExpr(this);
@@ -55,6 +62,9 @@ abstract class Expr {
     final Token paren;
     final List<Expr> arguments;
 
+    Object[] callees;
+    int cached;
+
     @Override
     <R> R accept(Visitor<R> visitor) {
       return visitor.visitCallExpr(this);
@@ -69,11 +79,32 @@ abstract class Expr {
     final List<Token> params;
     final List<Stmt> body;
 
+    int frameSize;
+    int[] cells;
+    int[] captureDepths;
+    int[] captureSlots;
+    ZunuAnonFunction instance;
+    FunctionMetrics metrics;
+
     @Override
     <R> R accept(Visitor<R> visitor) {
       return visitor.visitAnonFnExpr(this);
     }
   }
+  static class Concat extends Expr {
+    Concat(List<Expr> operands, List<Token> operators) {
+      this.operands = operands;
+      this.operators = operators;
+    }
+
+    final List<Expr> operands;
+    final List<Token> operators;
+
+    @Override
+    <R> R accept(Visitor<R> visitor) {
+      return visitor.visitConcatExpr(this);
+    }
+  }
   static class Grouping extends Expr {
     Grouping(Expr expression) {
       this.expression = expression;
@@ -135,6 +166,10 @@ abstract class Expr {
 
     final Token name;
 
+    int depth;
+    int slot;
+    boolean cell;
+
     @Override
     <R> R accept(Visitor<R> visitor) {
       return visitor.visitVariableExpr(this);
@@ -0,0 +1,39 @@
+package me.ghostlyzsh.zunu.zunu;
+
+// A function whose arguments live in the first slots of its frame. Callers
+// evaluate arguments straight into a new frame instead of building a list.
+interface FrameCallable extends ZunuCallable {
+    Environment newFrame();
+
+    // runs the body once, a tail call at its end comes back as a TailCall
+    Object run(Interpreter interpreter, Environment frame);
+
+    // the declaration's metrics in the script, looked up the first time
+    FunctionMetrics metrics(ScriptMetrics script);
+
+    // run, timed against the function's metrics when the script has them on
+    default Object step(Interpreter interpreter, Environment frame) {
+        ScriptMetrics metrics = interpreter.metrics;
+        if(metrics == null) return run(interpreter, frame);
+
+        FunctionMetrics function = metrics(metrics);
+        long start = System.nanoTime();
+        try {
+            return run(interpreter, frame);
+        } catch(RuntimeError e) {
+            function.error();
+            throw e;
+        } finally {
+            function.record(System.nanoTime() - start);
+        }
+    }
+
+    default Object invoke(Interpreter interpreter, Environment frame) {
+        Object result = step(interpreter, frame);
+        while(result instanceof TailCall) {
+            TailCall call = (TailCall) result;
+            result = call.function.step(interpreter, call.frame);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,54 @@
+package me.ghostlyzsh.zunu.zunu;
+
+import java.util.concurrent.atomic.LongAdder;
+
+// Counters for every function of a script with the same name, read through
+// JMX and /zunu stats. A call's time includes the calls it makes.
+final class FunctionMetrics implements FunctionMetricsMBean {
+    final String name;
+    private final LongAdder invocations = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final Histogram times = new Histogram();
+
+    FunctionMetrics(String name) {
+        this.name = name;
+    }
+
+    void record(long nanos) {
+        invocations.increment();
+        totalNanos.add(nanos);
+        times.record(nanos);
+    }
+
+    // a call that ended with a runtime error
+    void error() {
+        errors.increment();
+    }
+
+    @Override
+    public long getInvocations() {
+        return invocations.sum();
+    }
+
+    @Override
+    public long getErrors() {
+        return errors.sum();
+    }
+
+    @Override
+    public double getTotalMillis() {
+        return totalNanos.sum() / 1e6;
+    }
+
+    @Override
+    public double getAverageMicros() {
+        long count = invocations.sum();
+        return count == 0 ? 0 : totalNanos.sum() / 1e3 / count;
+    }
+
+    @Override
+    public double getP99Micros() {
+        return times.percentile(0.99) / 1e3;
+    }
+}
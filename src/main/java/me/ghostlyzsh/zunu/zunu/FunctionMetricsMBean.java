@@ -0,0 +1,9 @@
+package me.ghostlyzsh.zunu.zunu;
+
+public interface FunctionMetricsMBean {
+    long getInvocations();
+    long getErrors();
+    double getTotalMillis();
+    double getAverageMicros();
+    double getP99Micros();
+}
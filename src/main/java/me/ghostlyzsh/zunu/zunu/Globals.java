@@ -0,0 +1,54 @@
+package me.ghostlyzsh.zunu.zunu;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+public class Globals {
+    // marks a global the Resolver has seen declared but that hasn't run yet
+    private static final Object UNDEFINED = new Object();
+
+    private final Map<String, Integer> indexes = new HashMap<>();
+    private Object[] values = new Object[16];
+
+    int declare(String name) {
+        Integer index = indexes.get(name);
+        if(index != null) return index;
+
+        index = indexes.size();
+        if(index >= values.length) {
+            values = Arrays.copyOf(values, values.length * 2);
+        }
+        values[index] = UNDEFINED;
+        indexes.put(name, index);
+        return index;
+    }
+
+    boolean isDeclared(String name) {
+        return indexes.containsKey(name);
+    }
+
+    Object get(int index, Token name) {
+        Object value = values[index];
+        if(value == UNDEFINED) {
+            throw new RuntimeError(name, "Undefined variable '" + name.lexeme() + "'.");
+        }
+        return value;
+    }
+
+    void assign(int index, Token name, Object value) {
+        if(values[index] == UNDEFINED) {
+            throw new RuntimeError(name,
+                    "Undefined variable '" + name.lexeme() + "'");
+        }
+        values[index] = value;
+    }
+
+    void define(int index, Object value) {
+        values[index] = value;
+    }
+
+    public void define(String name, Object value) {
+        define(declare(name), value);
+    }
+}
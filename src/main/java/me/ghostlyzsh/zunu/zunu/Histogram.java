@@ -0,0 +1,57 @@
+package me.ghostlyzsh.zunu.zunu;
+
+import java.util.concurrent.atomic.LongAdder;
+
+// Counts durations in buckets that grow exponentially, four to every power
+// of two, so a percentile is never off by more than a quarter. Recording
+// only increments a LongAdder, threads never wait on each other.
+final class Histogram {
+    private static final int SUB_BITS = 2;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    private final LongAdder[] buckets = new LongAdder[64 * SUB_BUCKETS];
+
+    Histogram() {
+        for(int i = 0; i < buckets.length; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    void record(long nanos) {
+        buckets[bucket(Math.max(nanos, 1))].increment();
+    }
+
+    private static int bucket(long value) {
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        if(exponent < SUB_BITS) return (int) value;
+        int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+        return exponent * SUB_BUCKETS + sub;
+    }
+
+    // the largest value that falls in a bucket
+    private static long upperBound(int bucket) {
+        int exponent = bucket / SUB_BUCKETS;
+        if(exponent < SUB_BITS) return bucket;
+        long sub = bucket % SUB_BUCKETS;
+        return ((SUB_BUCKETS + sub + 1) << (exponent - SUB_BITS)) - 1;
+    }
+
+    // an upper bound on the given fraction of the recorded values, 0 if
+    // nothing was recorded
+    long percentile(double fraction) {
+        long[] counts = new long[buckets.length];
+        long total = 0;
+        for(int i = 0; i < buckets.length; i++) {
+            counts[i] = buckets[i].sum();
+            total += counts[i];
+        }
+        if(total == 0) return 0;
+
+        long rank = (long) Math.ceil(total * fraction);
+        long seen = 0;
+        for(int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if(seen >= rank) return upperBound(i);
+        }
+        return upperBound(counts.length - 1);
+    }
+}
@@ -0,0 +1,29 @@
+package me.ghostlyzsh.zunu.zunu;
+
+// Caches the callees an Expr.Call has type and arity checked. A site is
+// monomorphic with one cached callee, polymorphic with up to
+// POLYMORPHIC_LIMIT, and megamorphic once it has seen more, at which point
+// it stops caching and checks every call.
+final class InlineCache {
+    private InlineCache() {}
+
+    static final int POLYMORPHIC_LIMIT = 4;
+    static final int MEGAMORPHIC = -1;
+
+    static void remember(Expr.Call expr, ZunuCallable callee) {
+        if(expr.cached == MEGAMORPHIC) return;
+
+        if(expr.cached == POLYMORPHIC_LIMIT) {
+            // drop the callees so the site doesn't keep their closures alive
+            expr.callees = null;
+            expr.cached = MEGAMORPHIC;
+            return;
+        }
+
+        if(expr.callees == null) {
+            expr.callees = new Object[POLYMORPHIC_LIMIT];
+        }
+        expr.callees[expr.cached] = callee;
+        expr.cached++;
+    }
+}
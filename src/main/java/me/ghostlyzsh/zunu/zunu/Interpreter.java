@@ -1,17 +1,32 @@
 package me.ghostlyzsh.zunu.zunu;
 
-import org.bukkit.plugin.java.JavaPlugin;
-
 import java.util.ArrayList;
 import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.LogRecord;
 
-public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
-    final Environment globals = new Environment();
-    private Environment environment = globals;
+// An Interpreter is used by one thread at a time, another thread running
+// the same script's functions gets its own from fork.
+public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Completion> {
+    final Globals globals;
+    // null while running top-level code, globals live in their own table
+    private Environment environment = null;
+    // what the last return evaluated to, taken by the function it ends
+    private Object returnValue = null;
+    final Watchdog watchdog = new Watchdog();
+    // set while the profiler is on for this script
+    volatile Profiler profiler;
+    // whether a run is in progress, the profiler only samples while it is
+    volatile boolean running = false;
+    // null unless metrics are on
+    ScriptMetrics metrics;
+
+    private Interpreter(Globals globals) {
+        this.globals = globals;
+    }
 
     Interpreter() {
+        this(new Globals());
         globals.define("clock", new ZunuCallable() {
             @Override
             public int arity() {
@@ -23,6 +38,11 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
                 return (double)System.currentTimeMillis() / 1000.0;
             }
 
+            @Override
+            public Object call0(Interpreter interpreter) {
+                return (double)System.currentTimeMillis() / 1000.0;
+            }
+
             @Override
             public String toString() { return "<native fn>"; }
         });
@@ -34,194 +54,156 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
             @Override
             public Object call(Interpreter interpreter, List<Object> arguments) {
-                String str = new String();
+                StringBuilder str = new StringBuilder();
                 for(Object argument : arguments) {
-                    str += String.valueOf(argument);
+                    str.append(argument);
                 }
-                JavaPlugin.getPlugin(Zunu.class).getServer().getLogger().info(str);
+                ScriptLog.logger.info(str.toString());
                 return null;
             }
         });
+        globals.define("sync", new ZunuCallable() {
+            @Override
+            public int arity() {
+                return 1;
+            }
+
+            @Override
+            public Object call(Interpreter interpreter, List<Object> arguments) {
+                return AsyncExecutor.sync(interpreter, arguments.get(0));
+            }
+
+            @Override
+            public Object call1(Interpreter interpreter, Object function) {
+                return AsyncExecutor.sync(interpreter, function);
+            }
+
+            @Override
+            public String toString() { return "<native fn>"; }
+        });
+    }
+
+    // an Interpreter for another thread, sharing this one's globals and
+    // watchdog limits
+    Interpreter fork() {
+        Interpreter fork = new Interpreter(globals);
+        fork.watchdog.limit(watchdog);
+        fork.profiler = profiler;
+        fork.metrics = metrics;
+        return fork;
     }
 
     void interpreter(List<Stmt> statements, String name) {
+        watchdog.reset(0);
+        running = true;
+        long start = System.nanoTime();
         try {
             for(Stmt statement : statements) {
-                execute(statement);
+                // a return at the top level ends the script
+                if(execute(statement) != Completion.NORMAL) break;
             }
         } catch (RuntimeError e) {
             Zunu.runtimeError(e, name);
+        } finally {
+            running = false;
+            returnValue = null;
+            if(metrics != null) metrics.run(System.nanoTime() - start);
         }
     }
 
+    // every engine calls this when it creates a frame
+    void allocateFrame(int slots) {
+        watchdog.allocate(Watchdog.frameBytes(slots));
+        if(metrics != null) metrics.frames.increment();
+    }
+
     @Override
     public Object visitBinaryExpr(Expr.Binary expr) {
         Object left = evaluate(expr.left);
         Object right = evaluate(expr.right);
 
-        switch(expr.operator.type) {
-            case GREATER:
-                if(left instanceof Integer) {
-                    if(right instanceof Integer) {
-                        return (int)left > (int)right;
-                    } else if(right instanceof Float) {
-                        return (int)left > (float)right;
-                    } else {
-                        throw new RuntimeError(expr.operator, "Operands must be a number.");
-                    }
-                } else if(left instanceof Float) {
-                    if(right instanceof Integer) {
-                        return (float)left > (int)right;
-                    } else if(right instanceof Float) {
-                        return (float)left > (float)right;
-                    } else {
-                        throw new RuntimeError(expr.operator, "Operands must be a number.");
-                    }
-                } else {
-                    throw new RuntimeError(expr.operator, "Operands must be a number.");
-                }
-            case GREATER_EQUAL:
-                if(left instanceof Integer) {
-                    if(right instanceof Integer) {
-                        return (int)left >= (int)right;
-                    } else if(right instanceof Float) {
-                        return (int)left >= (float)right;
-                    } else {
-                        throw new RuntimeError(expr.operator, "Operands must be a number.");
-                    }
-                } else if(left instanceof Float) {
-                    if(right instanceof Integer) {
-                        return (float)left >= (int)right;
-                    } else if(right instanceof Float) {
-                        return (float)left >= (float)right;
-                    } else {
-                        throw new RuntimeError(expr.operator, "Operands must be a number.");
-                    }
-                } else {
-                    throw new RuntimeError(expr.operator, "Operands must be a number.");
-                }
-            case LESS:
-                if(left instanceof Integer) {
-                    if(right instanceof Integer) {
-                        return (int)left < (int)right;
-                    } else if(right instanceof Float) {
-                        return (int)left < (float)right;
-                    } else {
-                        throw new RuntimeError(expr.operator, "Operands must be a number.");
-                    }
-                } else if(left instanceof Float) {
-                    if(right instanceof Integer) {
-                        return (float)left < (int)right;
-                    } else if(right instanceof Float) {
-                        return (float)left < (float)right;
-                    } else {
-                        throw new RuntimeError(expr.operator, "Operands must be a number.");
-                    }
-                } else {
-                    throw new RuntimeError(expr.operator, "Operands must be a number.");
-                }
-            case LESS_EQUAL:
-                if(left instanceof Integer) {
-                    if(right instanceof Integer) {
-                        return (int)left <= (int)right;
-                    } else if(right instanceof Float) {
-                        return (int)left <= (float)right;
-                    } else {
-                        throw new RuntimeError(expr.operator, "Operands must be a number.");
-                    }
-                } else if(left instanceof Float) {
-                    if(right instanceof Integer) {
-                        return (float)left <= (int)right;
-                    } else if(right instanceof Float) {
-                        return (float)left <= (float)right;
-                    } else {
-                        throw new RuntimeError(expr.operator, "Operands must be a number.");
-                    }
-                } else {
-                    throw new RuntimeError(expr.operator, "Operands must be a number.");
-                }
-            case BANG_EQUAL: return !isEqual(left, right);
-            case EQUAL_EQUAL: return isEqual(left, right);
-            case MINUS:
-                if(left instanceof Integer) {
-                    if(right instanceof Integer) {
-                        return (int)left - (int) right;
-                    } else if(right instanceof Float){
-                        return (int)left - (float) right;
-                    } else {
-                        throw new RuntimeError(expr.operator, "Operands must be a number.");
-                    }
-                } else if(left instanceof Float) {
-                    if(right instanceof Integer) {
-                        return (float)left - (int) right;
-                    } else if(right instanceof Float){
-                        return (float)left - (float) right;
-                    } else {
-                        throw new RuntimeError(expr.operator, "Operands must be a number.");
-                    }
-                }  else {
-                    throw new RuntimeError(expr.operator, "Operands must be a number.");
-                }
-            case PLUS:
-                if(left instanceof Integer) {
-                    if(right instanceof Integer) {
-                        return (int)left + (int)right;
-                    } else if(right instanceof Float) {
-                        return (int)left + (float)right;
-                    }
-                } else if(left instanceof Float) {
-                    if(right instanceof Integer) {
-                        return (float)left + (int)right;
-                    } else if(right instanceof Float) {
-                        return (float)left + (float)right;
-                    }
+        // fast paths for the types the node specialized to, any type that
+        // doesn't match breaks out and the node specializes again
+        switch(expr.state) {
+            case BinarySpecialization.INT_ADD:
+                if(left instanceof Integer && right instanceof Integer) return (int)left + (int)right;
+                break;
+            case BinarySpecialization.INT_SUBTRACT:
+                if(left instanceof Integer && right instanceof Integer) return (int)left - (int)right;
+                break;
+            case BinarySpecialization.INT_MULTIPLY:
+                if(left instanceof Integer && right instanceof Integer) return (int)left * (int)right;
+                break;
+            case BinarySpecialization.INT_DIVIDE:
+                if(left instanceof Integer && right instanceof Integer) return (int)left / (int)right;
+                break;
+            case BinarySpecialization.INT_GREATER:
+                if(left instanceof Integer && right instanceof Integer) return (int)left > (int)right;
+                break;
+            case BinarySpecialization.INT_GREATER_EQUAL:
+                if(left instanceof Integer && right instanceof Integer) return (int)left >= (int)right;
+                break;
+            case BinarySpecialization.INT_LESS:
+                if(left instanceof Integer && right instanceof Integer) return (int)left < (int)right;
+                break;
+            case BinarySpecialization.INT_LESS_EQUAL:
+                if(left instanceof Integer && right instanceof Integer) return (int)left <= (int)right;
+                break;
+            case BinarySpecialization.FLOAT_ADD:
+                if(left instanceof Float && right instanceof Float) return (float)left + (float)right;
+                break;
+            case BinarySpecialization.FLOAT_SUBTRACT:
+                if(left instanceof Float && right instanceof Float) return (float)left - (float)right;
+                break;
+            case BinarySpecialization.FLOAT_MULTIPLY:
+                if(left instanceof Float && right instanceof Float) return (float)left * (float)right;
+                break;
+            case BinarySpecialization.FLOAT_DIVIDE:
+                if(left instanceof Float && right instanceof Float) return (float)left / (float)right;
+                break;
+            case BinarySpecialization.FLOAT_GREATER:
+                if(left instanceof Float && right instanceof Float) return (float)left > (float)right;
+                break;
+            case BinarySpecialization.FLOAT_GREATER_EQUAL:
+                if(left instanceof Float && right instanceof Float) return (float)left >= (float)right;
+                break;
+            case BinarySpecialization.FLOAT_LESS:
+                if(left instanceof Float && right instanceof Float) return (float)left < (float)right;
+                break;
+            case BinarySpecialization.FLOAT_LESS_EQUAL:
+                if(left instanceof Float && right instanceof Float) return (float)left <= (float)right;
+                break;
+            case BinarySpecialization.STRING_ADD:
+                if(ConcatString.isString(left) && ConcatString.isString(right)) {
+                    Object result = ConcatString.concat(left, right);
+                    watchdog.allocate(Watchdog.concatBytes(left, result));
+                    return result;
                 }
+                break;
+            case BinarySpecialization.GENERIC:
+                return binary(expr, left, right);
+        }
 
-                if(left instanceof String && right instanceof String) {
-                    return (String)left + (String)right;
-                }
+        expr.state = BinarySpecialization.specialize(expr, left, right);
+        return binary(expr, left, right);
+    }
 
-                throw new RuntimeError(expr.operator, "Operands must be two numbers or strings.");
-            case SLASH:
-                if(left instanceof Integer) {
-                    if(right instanceof Integer) {
-                        return (int)left / (int) right;
-                    } else if(right instanceof Float){
-                        return (int)left / (float) right;
-                    } else {
-                        throw new RuntimeError(expr.operator, "Operands must be a number.");
-                    }
-                } else if(left instanceof Float) {
-                    if(right instanceof Integer) {
-                        return (float)left / (int) right;
-                    } else if(right instanceof Float) {
-                        return (float)left / (float) right;
-                    } else {
-                        throw new RuntimeError(expr.operator, "Operands must be a number.");
-                    }
-                } else {
-                    throw new RuntimeError(expr.operator, "Operands must be a number.");
-                }
-            case STAR:
-                if(left instanceof Integer) {
-                    if(right instanceof Integer) {
-                        return (int)left * (int) right;
-                    } else if(right instanceof Float){
-                        return (int)left * (float) right;
-                    } else {
-                        throw new RuntimeError(expr.operator, "Operands must be a number.");
-                    }
-                } else if(left instanceof Float){
-                    if(right instanceof Integer) {
-                        return (float)left * (int) right;
-                    } else if(right instanceof Float){
-                        return (float)left * (float) right;
-                    } else {
-                        throw new RuntimeError(expr.operator, "Operands must be a number.");
-                    }
-                } else {
-                    throw new RuntimeError(expr.operator, "Operands must be a number.");
-                }
+    private Object binary(Expr.Binary expr, Object left, Object right) {
+        switch(expr.operator.type) {
+            case GREATER: return Operators.greater(expr.operator, left, right);
+            case GREATER_EQUAL: return Operators.greaterEqual(expr.operator, left, right);
+            case LESS: return Operators.less(expr.operator, left, right);
+            case LESS_EQUAL: return Operators.lessEqual(expr.operator, left, right);
+            case BANG_EQUAL: return !isEqual(left, right);
+            case EQUAL_EQUAL: return isEqual(left, right);
+            case MINUS: return Operators.subtract(expr.operator, left, right);
+            case PLUS: {
+                Object result = Operators.add(expr.operator, left, right);
+                if(ConcatString.isString(result)) watchdog.allocate(Watchdog.concatBytes(left, result));
+                return result;
+            }
+            case SLASH: return Operators.divide(expr.operator, left, right);
+            case STAR: return Operators.multiply(expr.operator, left, right);
         }
 
         return null;
@@ -229,11 +211,85 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     @Override
     public Object visitCallExpr(Expr.Call expr) {
+        return call(expr, callee(expr));
+    }
+
+    // evaluates the callee and checks it can take the call's arguments
+    private Object callee(Expr.Call expr) {
         Object callee = evaluate(expr.callee);
 
-        List<Object> arguments = new ArrayList<>();
+        // callees this site has already checked skip the checks
+        boolean checked = false;
+        Object[] callees = expr.callees;
+        for(int i = 0; i < expr.cached; i++) {
+            if(callees[i] == callee && callee != null) {
+                checked = true;
+                break;
+            }
+        }
+        if(!checked) checkCallee(expr, callee);
+        return callee;
+    }
+
+    private Object call(Expr.Call expr, Object callee) {
+        watchdog.enter(expr.paren);
+        Profiler profiler = this.profiler;
+        if(profiler != null) profiler.enter(callee, expr.paren);
+        List<Expr> arguments = expr.arguments;
+        try {
+            if(callee instanceof FrameCallable) {
+                FrameCallable function = (FrameCallable) callee;
+                Environment frame = function.newFrame();
+                allocateFrame(frame.slots.length);
+                for(int i = 0; i < arguments.size(); i++) {
+                    frame.slots[i] = evaluate(arguments.get(i));
+                }
+                return function.invoke(this, frame);
+            }
+
+            ZunuCallable function = (ZunuCallable) callee;
+            switch(arguments.size()) {
+                case 0:
+                    return function.call0(this);
+                case 1:
+                    return function.call1(this, evaluate(arguments.get(0)));
+                case 2: {
+                    Object a = evaluate(arguments.get(0));
+                    return function.call2(this, a, evaluate(arguments.get(1)));
+                }
+                case 3: {
+                    Object a = evaluate(arguments.get(0));
+                    Object b = evaluate(arguments.get(1));
+                    return function.call3(this, a, b, evaluate(arguments.get(2)));
+                }
+            }
+
+            List<Object> values = new ArrayList<>(arguments.size());
+            for(Expr argument : arguments) {
+                values.add(evaluate(argument));
+            }
+            return function.call(this, values);
+        } catch(RuntimeError e) {
+            throw e.at(expr.paren);
+        } finally {
+            watchdog.exit();
+            if(profiler != null) profiler.exit();
+        }
+    }
+
+    private void checkCallee(Expr.Call expr, Object callee) {
+        int argCount = expr.arguments.size();
+        if(callee instanceof ZunuCallable) {
+            ZunuCallable function = (ZunuCallable) callee;
+            if(function.arity() == -1 || function.arity() == argCount) {
+                InlineCache.remember(expr, function);
+                return;
+            }
+        }
+
+        // the arguments still run before the call fails
         for(Expr argument : expr.arguments) {
-            arguments.add(evaluate(argument));
+            evaluate(argument);
         }
 
         if(!(callee instanceof ZunuCallable)) {
@@ -241,22 +297,56 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         }
 
         ZunuCallable function = (ZunuCallable) callee;
-
-        if(function.arity() != -1) {
-            if (arguments.size() != function.arity()) {
-                throw new RuntimeError(expr.paren, "Expected " + function.arity() +
-                        " arguments but got " + arguments.size());
-            }
-        }
-        return function.call(this, arguments);
+        throw new RuntimeError(expr.paren, "Expected " + function.arity() +
+                " arguments but got " + argCount);
     }
 
     @Override
     public Object visitAnonFnExpr(Expr.AnonFn expr) {
-        ZunuAnonFunction function = new ZunuAnonFunction(expr, environment);
+        // one that captures nothing is the same every time, it's made once
+        if(expr.instance != null) return expr.instance;
+
+        Environment closure = Environment.capture(environment, expr.captureDepths, expr.captureSlots);
+        ZunuAnonFunction function = new ZunuAnonFunction(expr, closure);
+        watchdog.allocate(Watchdog.CLOSURE_BYTES);
+        if(closure == null) expr.instance = function;
         return function;
     }
 
+    // strings after a plain String are appended to one builder, anything
+    // else goes through add so it fails at the same + as the chain would
+    @Override
+    public Object visitConcatExpr(Expr.Concat expr) {
+        Object result = evaluate(expr.operands.get(0));
+        StringBuilder builder = null;
+        for(int i = 1; i < expr.operands.size(); i++) {
+            Object right = evaluate(expr.operands.get(i));
+            if(ConcatString.isString(right)) {
+                if(builder != null) {
+                    builder.append(right);
+                    continue;
+                }
+                if(result instanceof String) {
+                    builder = new StringBuilder().append((String) result).append(right);
+                    continue;
+                }
+            }
+            if(builder != null) {
+                result = ConcatString.of(builder);
+                builder = null;
+                watchdog.allocate(Watchdog.concatBytes(null, result));
+            }
+            Object left = result;
+            result = Operators.add(expr.operators.get(i - 1), left, right);
+            if(ConcatString.isString(result)) watchdog.allocate(Watchdog.concatBytes(left, result));
+        }
+        if(builder != null) {
+            result = ConcatString.of(builder);
+            watchdog.allocate(Watchdog.concatBytes(null, result));
+        }
+        return result;
+    }
+
     @Override
     public Object visitGroupingExpr(Expr.Grouping expr) {
         return evaluate(expr.expression);
@@ -288,13 +378,7 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
             case BANG:
                 return !isTruthy(right);
             case MINUS:
-                if(right instanceof Integer) {
-                    return -(int) right;
-                } else if(right instanceof Float){
-                    return -(float) right;
-                } else {
-                    throw new RuntimeError(expr.operator, "Operand must be a number.");
-                }
+                return Operators.negate(expr.operator, right);
         }
 
         return null;
@@ -302,20 +386,17 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
 
     @Override
     public Object visitVariableExpr(Expr.Variable expr) {
-        return environment.get(expr.name);
+        if(expr.depth < 0) return globals.get(expr.slot, expr.name);
+        if(expr.cell) return environment.getCell(expr.depth, expr.slot);
+        return environment.getAt(expr.depth, expr.slot);
     }
 
     private boolean isTruthy(Object object) {
-        if(object == null) return false;
-        if(object instanceof Boolean) return (boolean)object;
-        return true;
+        return Operators.isTruthy(object);
     }
 
     private boolean isEqual(Object a, Object b) {
-        if(a == null && b == null) return true;
-        if(a == null) return false;
-
-        return a.equals(b);
+        return Operators.isEqual(a, b);
     }
 
     private String stringify(Object object) {
@@ -328,97 +409,163 @@ public class Interpreter implements Expr.Visitor<Object>, Stmt.Visitor<Void> {
         return expr.accept(this);
     }
 
-    private void execute(Stmt stmt) {
-        stmt.accept(this);
+    private Completion execute(Stmt stmt) {
+        return stmt.accept(this);
     }
 
-    void executeBlock(List<Stmt> statements, Environment environment) {
+    Completion executeBlock(List<Stmt> statements, Environment environment) {
         Environment previous = this.environment;
         try {
             this.environment = environment;
 
-            for(Stmt statement: statements) {
-                execute(statement);
+            for(Stmt statement : statements) {
+                Completion completion = execute(statement);
+                if(completion != Completion.NORMAL) return completion;
             }
+            return Completion.NORMAL;
         } finally {
             this.environment = previous;
         }
     }
 
+    // takes the value a RETURN completion left behind
+    Object takeReturnValue() {
+        Object value = returnValue;
+        returnValue = null;
+        return value;
+    }
+
     @Override
-    public Void visitBlockStmt(Stmt.Block stmt) {
-        executeBlock(stmt.statements, new Environment(environment));
-        return null;
+    public Completion visitBlockStmt(Stmt.Block stmt) {
+        if(stmt.frameSize == 0) {
+            for(Stmt statement : stmt.statements) {
+                Completion completion = execute(statement);
+                if(completion != Completion.NORMAL) return completion;
+            }
+            return Completion.NORMAL;
+        }
+        allocateFrame(stmt.frameSize);
+        Environment frame = new Environment(environment, stmt.frameSize);
+        frame.box(stmt.cells);
+        return executeBlock(stmt.statements, frame);
     }
 
     @Override
-    public Void visitExpressionStmt(Stmt.Expression stmt) {
+    public Completion visitExpressionStmt(Stmt.Expression stmt) {
         evaluate(stmt.expression);
-        return null;
+        return Completion.NORMAL;
     }
 
     @Override
-    public Void visitFunctionStmt(Stmt.Function stmt) {
-        ZunuFunction function = new ZunuFunction(stmt, environment);
-        environment.define(stmt.name.lexeme, function);
-        return null;
+    public Completion visitFunctionStmt(Stmt.Function stmt) {
+        ZunuFunction function = stmt.instance;
+        if(function == null) {
+            Environment closure = Environment.capture(environment, stmt.captureDepths, stmt.captureSlots);
+            function = new ZunuFunction(stmt, closure);
+            watchdog.allocate(Watchdog.CLOSURE_BYTES);
+            // shared by every run of the declaration when it captures nothing
+            if(closure == null) stmt.instance = function;
+        }
+        if(stmt.global) {
+            globals.define(stmt.slot, function);
+        } else if(stmt.cell) {
+            environment.defineCell(stmt.slot, function);
+        } else {
+            environment.define(stmt.slot, function);
+        }
+        return Completion.NORMAL;
     }
 
     @Override
-    public Void visitIfStmt(Stmt.If stmt) {
+    public Completion visitIfStmt(Stmt.If stmt) {
         if(isTruthy(evaluate(stmt.condition))) {
-            execute(stmt.thenBranch);
+            return execute(stmt.thenBranch);
         } else if (stmt.elseBranch != null) {
-            execute(stmt.elseBranch);
+            return execute(stmt.elseBranch);
         }
-        return null;
+        return Completion.NORMAL;
     }
 
     @Override
-    public Void visitReturnStmt(Stmt.Return stmt) {
+    public Completion visitReturnStmt(Stmt.Return stmt) {
         Object value = null;
-        if(stmt.value != null) value = evaluate(stmt.value);
+        if(stmt.tail) {
+            value = tailCall((Expr.Call) stmt.value);
+        } else if(stmt.value != null) {
+            value = evaluate(stmt.value);
+        }
 
-        throw new Return(value);
+        returnValue = value;
+        return Completion.RETURN;
     }
 
-    public Void visitLetStmt(Stmt.Let stmt) {
+    // a script function called by a return becomes a TailCall, which the
+    // returning function's invoke runs once its frame is gone
+    private Object tailCall(Expr.Call expr) {
+        Object callee = callee(expr);
+        if(!(callee instanceof FrameCallable)) return call(expr, callee);
+
+        FrameCallable function = (FrameCallable) callee;
+        Environment frame = function.newFrame();
+        allocateFrame(frame.slots.length);
+        List<Expr> arguments = expr.arguments;
+        for(int i = 0; i < arguments.size(); i++) {
+            frame.slots[i] = evaluate(arguments.get(i));
+        }
+        // the depth stays the same, it's still a step
+        watchdog.step(expr.paren);
+        Profiler profiler = this.profiler;
+        if(profiler != null) profiler.replace(callee, expr.paren);
+        return new TailCall(function, frame);
+    }
+
+    public Completion visitLetStmt(Stmt.Let stmt) {
         Object value = null;
         if(stmt.initializer != null) {
             value = evaluate(stmt.initializer);
         }
 
-        environment.define(stmt.name.lexeme, value);
-        return null;
+        if(stmt.global) {
+            globals.define(stmt.slot, value);
+        } else if(stmt.cell) {
+            environment.defineCell(stmt.slot, value);
+        } else {
+            environment.define(stmt.slot, value);
+        }
+        return Completion.NORMAL;
     }
 
     @Override
-    public Void visitWhileStmt(Stmt.While stmt) {
+    public Completion visitWhileStmt(Stmt.While stmt) {
         while(isTruthy(evaluate(stmt.condition))) {
-            try {
-                execute(stmt.body);
-            } catch(Break b) {
-                break;
-            } catch(Continue b) {
-                continue;
-            }
+            // a continue just goes on to the next iteration
+            Completion completion = execute(stmt.body);
+            if(completion == Completion.BREAK) break;
+            if(completion == Completion.RETURN) return completion;
+            watchdog.step(stmt.keyword);
         }
-        return null;
+        return Completion.NORMAL;
     }
 
     @Override
-    public Void visitBreakStmt(Stmt.Break stmt) {
-        throw new Break();
+    public Completion visitBreakStmt(Stmt.Break stmt) {
+        return Completion.BREAK;
     }
 
     @Override
-    public Void visitContinueStmt(Stmt.Continue stmt) {
-        throw new Continue();
+    public Completion visitContinueStmt(Stmt.Continue stmt) {
+        return Completion.CONTINUE;
     }
 
     public Object visitAssignExpr(Expr.Assign expr) {
         Object value = evaluate(expr.value);
-        environment.assign(expr.name, value);
+        if(expr.depth < 0) {
+            globals.assign(expr.slot, expr.name, value);
+        } else if(expr.cell) {
+            environment.assignCell(expr.depth, expr.slot, value);
+        } else {
+            environment.assignAt(expr.depth, expr.slot, value);
+        }
         return value;
     }
 }
@@ -0,0 +1,632 @@
+package me.ghostlyzsh.zunu.zunu;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Stack;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Compiles the body of a hot ZunuFunction to a JVM class so HotSpot can
+// optimize it. Only a subset is supported: literals, the function's own
+// locals, globals, operators, calls, if/while and return. Anything else,
+// like nested functions or reading an enclosing function's locals, makes
+// compile() return null and the function stays in the Interpreter.
+public class JitCompiler implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+    // calls before a function is compiled, 0 turns the JIT off
+    static volatile int threshold = 1000;
+
+    private static class Unsupported extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        Unsupported(String reason) {
+            super(reason, null, false, false);
+        }
+    }
+
+    private static class Loop {
+        final int start;
+        final Token keyword;
+        final List<Integer> breaks = new ArrayList<>();
+
+        Loop(int start, Token keyword) {
+            this.start = start;
+            this.keyword = keyword;
+        }
+    }
+
+    // every compiled function gets its own loader, so its class can be
+    // unloaded together with the script it came from
+    private static class JitClassLoader extends ClassLoader {
+        JitClassLoader(ClassLoader parent) {
+            super(parent);
+        }
+
+        Class<?> define(String name, byte[] bytes) {
+            return defineClass(name, bytes, 0, bytes.length);
+        }
+    }
+
+    private static final AtomicInteger classCount = new AtomicInteger();
+
+    private static final String SUPERCLASS = "me/ghostlyzsh/zunu/zunu/CompiledFunction";
+    private static final String RUNTIME = "me/ghostlyzsh/zunu/zunu/JitRuntime";
+    private static final String INVOKE = "(Lme/ghostlyzsh/zunu/zunu/Interpreter;[Ljava/lang/Object;)Ljava/lang/Object;";
+    private static final String BINARY = "(Ljava/lang/Object;Ljava/lang/Object;Ljava/lang/Object;)Ljava/lang/Object;";
+
+    // JVM locals: 0 is this, 1 the Interpreter, 2 the arguments array
+    private static final int FIRST_LOCAL = 3;
+
+    private final ConstantPool pool = new ConstantPool();
+    private final CodeBuffer code = new CodeBuffer();
+    private final List<Object> constants = new ArrayList<>();
+    // first JVM local of every frame the Resolver made, innermost last
+    private final List<Integer> frames = new ArrayList<>();
+    private final Stack<Loop> loops = new Stack<>();
+    private int nextLocal = FIRST_LOCAL;
+    private int maxLocals = FIRST_LOCAL;
+    private int stackDepth = 0;
+    private int maxStack = 0;
+
+    private JitCompiler() {}
+
+    static CompiledFunction compile(Stmt.Function function) {
+        JitCompiler compiler = new JitCompiler();
+        String name = "me/ghostlyzsh/zunu/zunu/jit/" + function.name.lexeme() + "$" + classCount.incrementAndGet();
+        try {
+            byte[] bytes = compiler.compileClass(function, name);
+            Class<?> generated = new JitClassLoader(CompiledFunction.class.getClassLoader())
+                    .define(name.replace('/', '.'), bytes);
+            return (CompiledFunction) generated.getConstructor(Object[].class)
+                    .newInstance((Object) compiler.constants.toArray());
+        } catch(Unsupported e) {
+            return null;
+        } catch(ReflectiveOperationException | LinkageError e) {
+            // a bug in the generated code, the Interpreter still runs it
+            return null;
+        }
+    }
+
+    private byte[] compileClass(Stmt.Function function, String className) {
+        // copy the arguments into locals, the remaining slots start as null
+        frames.add(FIRST_LOCAL);
+        nextLocal = FIRST_LOCAL + function.frameSize;
+        if(nextLocal > 255) throw new Unsupported("too many locals");
+        maxLocals = nextLocal;
+        for(int i = 0; i < function.frameSize; i++) {
+            if(i < function.params.size()) {
+                op(Op.ALOAD_2, 1);
+                pushInt(i);
+                op(Op.AALOAD, -1);
+            } else {
+                op(Op.ACONST_NULL, 1);
+            }
+            store(FIRST_LOCAL + i);
+        }
+
+        for(Stmt statement : function.body) {
+            compile(statement);
+        }
+        op(Op.ACONST_NULL, 1);
+        op(Op.ARETURN, -1);
+
+        if(code.size() > Short.MAX_VALUE) throw new Unsupported("method too large");
+        return writeClass(className);
+    }
+
+    private void compile(Stmt stmt) {
+        stmt.accept(this);
+    }
+
+    private void compile(Expr expr) {
+        expr.accept(this);
+    }
+
+    private void op(int opcode, int effect) {
+        code.u1(opcode);
+        stackDepth += effect;
+        if(stackDepth > maxStack) maxStack = stackDepth;
+    }
+
+    private void pushInt(int value) {
+        if(value >= -1 && value <= 5) {
+            op(Op.ICONST_0 + value, 1);
+        } else if(value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+            op(Op.BIPUSH, 1);
+            code.u1(value);
+        } else if(value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+            op(Op.SIPUSH, 1);
+            code.u2(value);
+        } else {
+            throw new Unsupported("too many constants");
+        }
+    }
+
+    private void pushConstant(Object value) {
+        constants.add(value);
+        op(Op.ALOAD_0, 1);
+        op(Op.GETFIELD, 0);
+        code.u2(pool.field(SUPERCLASS, "constants", "[Ljava/lang/Object;"));
+        pushInt(constants.size() - 1);
+        op(Op.AALOAD, -1);
+    }
+
+    private void invokeRuntime(String name, String descriptor, int effect) {
+        op(Op.INVOKESTATIC, effect);
+        code.u2(pool.method(RUNTIME, name, descriptor));
+    }
+
+    private void load(int local) {
+        op(Op.ALOAD, 1);
+        code.u1(local);
+    }
+
+    private void store(int local) {
+        op(Op.ASTORE, -1);
+        code.u1(local);
+    }
+
+    private int local(int depth, int slot) {
+        int frame = frames.size() - 1 - depth;
+        if(frame < 0) throw new Unsupported("reads an enclosing function's locals");
+        return frames.get(frame) + slot;
+    }
+
+    // emits a jump and returns where its offset goes, for patchJump
+    private int jump(int opcode, int effect) {
+        int at = code.size();
+        op(opcode, effect);
+        code.u2(0);
+        return at;
+    }
+
+    private void patchJump(int at) {
+        code.patch(at + 1, code.size() - at);
+    }
+
+    private void jumpBack(int opcode, int effect, int target) {
+        int at = code.size();
+        op(opcode, effect);
+        code.u2(target - at);
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        if(stmt.frameSize == 0) {
+            for(Stmt statement : stmt.statements) {
+                compile(statement);
+            }
+            return null;
+        }
+
+        // a fresh frame starts out as nulls every time the block runs
+        int base = nextLocal;
+        frames.add(base);
+        nextLocal += stmt.frameSize;
+        if(nextLocal > 255) throw new Unsupported("too many locals");
+        maxLocals = Math.max(maxLocals, nextLocal);
+        for(int i = 0; i < stmt.frameSize; i++) {
+            op(Op.ACONST_NULL, 1);
+            store(base + i);
+        }
+
+        for(Stmt statement : stmt.statements) {
+            compile(statement);
+        }
+
+        frames.remove(frames.size() - 1);
+        nextLocal = base;
+        return null;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        compile(stmt.expression);
+        op(Op.POP, -1);
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+        throw new Unsupported("nested function");
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        compile(stmt.condition);
+        invokeRuntime("isTruthy", "(Ljava/lang/Object;)Z", 0);
+        int elseJump = jump(Op.IFEQ, -1);
+        compile(stmt.thenBranch);
+        if(stmt.elseBranch == null) {
+            patchJump(elseJump);
+            return null;
+        }
+
+        int endJump = jump(Op.GOTO, 0);
+        patchJump(elseJump);
+        compile(stmt.elseBranch);
+        patchJump(endJump);
+        return null;
+    }
+
+    // every back-edge is a watchdog step, like in the other engines
+    private void loopBack(Loop loop) {
+        op(Op.ALOAD_1, 1);
+        pushConstant(loop.keyword);
+        invokeRuntime("loop", "(Lme/ghostlyzsh/zunu/zunu/Interpreter;Ljava/lang/Object;)V", -2);
+        jumpBack(Op.GOTO, 0, loop.start);
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        int start = code.size();
+        compile(stmt.condition);
+        invokeRuntime("isTruthy", "(Ljava/lang/Object;)Z", 0);
+        int exitJump = jump(Op.IFEQ, -1);
+
+        Loop loop = new Loop(start, stmt.keyword);
+        loops.push(loop);
+        compile(stmt.body);
+        loops.pop();
+
+        loopBack(loop);
+        patchJump(exitJump);
+        for(int jump : loop.breaks) {
+            patchJump(jump);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+        if(stmt.tail) {
+            // handed back to the trampoline in FrameCallable.invoke
+            compileCall((Expr.Call) stmt.value, "tailCall");
+        } else if(stmt.value != null) {
+            compile(stmt.value);
+        } else {
+            op(Op.ACONST_NULL, 1);
+        }
+        op(Op.ARETURN, -1);
+        return null;
+    }
+
+    @Override
+    public Void visitLetStmt(Stmt.Let stmt) {
+        if(stmt.initializer != null) {
+            compile(stmt.initializer);
+        } else {
+            op(Op.ACONST_NULL, 1);
+        }
+        store(local(0, stmt.slot));
+        return null;
+    }
+
+    @Override
+    public Void visitBreakStmt(Stmt.Break stmt) {
+        loops.peek().breaks.add(jump(Op.GOTO, 0));
+        return null;
+    }
+
+    @Override
+    public Void visitContinueStmt(Stmt.Continue stmt) {
+        loopBack(loops.peek());
+        return null;
+    }
+
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr) {
+        compile(expr.value);
+        op(Op.DUP, 1);
+        if(expr.depth < 0) {
+            op(Op.ALOAD_1, 1);
+            pushInt(expr.slot);
+            pushConstant(expr.name);
+            invokeRuntime("setGlobal", "(Ljava/lang/Object;Lme/ghostlyzsh/zunu/zunu/Interpreter;ILjava/lang/Object;)V", -4);
+        } else {
+            store(local(expr.depth, expr.slot));
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr) {
+        compile(expr.left);
+        compile(expr.right);
+
+        switch(expr.operator.type) {
+            case EQUAL_EQUAL:
+                invokeRuntime("equal", "(Ljava/lang/Object;Ljava/lang/Object;)Ljava/lang/Object;", -1);
+                return null;
+            case BANG_EQUAL:
+                invokeRuntime("notEqual", "(Ljava/lang/Object;Ljava/lang/Object;)Ljava/lang/Object;", -1);
+                return null;
+        }
+
+        String method;
+        switch(expr.operator.type) {
+            case GREATER: method = "greater"; break;
+            case GREATER_EQUAL: method = "greaterEqual"; break;
+            case LESS: method = "less"; break;
+            case LESS_EQUAL: method = "lessEqual"; break;
+            case MINUS: method = "subtract"; break;
+            case PLUS: method = "add"; break;
+            case SLASH: method = "divide"; break;
+            case STAR: method = "multiply"; break;
+            default: throw new Unsupported("operator " + expr.operator.type);
+        }
+        pushConstant(expr.operator);
+        if(expr.operator.type == TokenType.PLUS) {
+            // adding strings counts against the allocation budget
+            op(Op.ALOAD_1, 1);
+            invokeRuntime(method, "(Ljava/lang/Object;Ljava/lang/Object;Ljava/lang/Object;Lme/ghostlyzsh/zunu/zunu/Interpreter;)Ljava/lang/Object;", -3);
+            return null;
+        }
+        invokeRuntime(method, BINARY, -2);
+        return null;
+    }
+
+    @Override
+    public Void visitCallExpr(Expr.Call expr) {
+        compileCall(expr, "call");
+        return null;
+    }
+
+    private void compileCall(Expr.Call expr, String method) {
+        compile(expr.callee);
+        pushInt(expr.arguments.size());
+        op(Op.ANEWARRAY, 0);
+        code.u2(pool.classRef("java/lang/Object"));
+        for(int i = 0; i < expr.arguments.size(); i++) {
+            op(Op.DUP, 1);
+            pushInt(i);
+            compile(expr.arguments.get(i));
+            op(Op.AASTORE, -3);
+        }
+        op(Op.ALOAD_1, 1);
+        pushConstant(expr.paren);
+        invokeRuntime(method, "(Ljava/lang/Object;[Ljava/lang/Object;Lme/ghostlyzsh/zunu/zunu/Interpreter;Ljava/lang/Object;)Ljava/lang/Object;", -3);
+    }
+
+    @Override
+    public Void visitAnonFnExpr(Expr.AnonFn expr) {
+        throw new Unsupported("anonymous function");
+    }
+
+    // a chain of calls to add, each one appends to the builder the one
+    // before made
+    @Override
+    public Void visitConcatExpr(Expr.Concat expr) {
+        compile(expr.operands.get(0));
+        for(int i = 1; i < expr.operands.size(); i++) {
+            compile(expr.operands.get(i));
+            pushConstant(expr.operators.get(i - 1));
+            op(Op.ALOAD_1, 1);
+            invokeRuntime("add", "(Ljava/lang/Object;Ljava/lang/Object;Ljava/lang/Object;Lme/ghostlyzsh/zunu/zunu/Interpreter;)Ljava/lang/Object;", -3);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr) {
+        compile(expr.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr) {
+        if(expr.value == null) {
+            op(Op.ACONST_NULL, 1);
+        } else {
+            pushConstant(expr.value);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(Expr.Logical expr) {
+        compile(expr.left);
+        op(Op.DUP, 1);
+        invokeRuntime("isTruthy", "(Ljava/lang/Object;)Z", 0);
+        // keep the left operand if it decides the result
+        int endJump = jump(expr.operator.type == TokenType.OR ? Op.IFNE : Op.IFEQ, -1);
+        op(Op.POP, -1);
+        compile(expr.right);
+        patchJump(endJump);
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr) {
+        compile(expr.right);
+        if(expr.operator.type == TokenType.BANG) {
+            invokeRuntime("not", "(Ljava/lang/Object;)Ljava/lang/Object;", 0);
+        } else {
+            pushConstant(expr.operator);
+            invokeRuntime("negate", "(Ljava/lang/Object;Ljava/lang/Object;)Ljava/lang/Object;", -1);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr) {
+        if(expr.depth < 0) {
+            op(Op.ALOAD_1, 1);
+            pushInt(expr.slot);
+            pushConstant(expr.name);
+            invokeRuntime("getGlobal", "(Lme/ghostlyzsh/zunu/zunu/Interpreter;ILjava/lang/Object;)Ljava/lang/Object;", -2);
+        } else {
+            load(local(expr.depth, expr.slot));
+        }
+        return null;
+    }
+
+    private byte[] writeClass(String className) {
+        int thisClass = pool.classRef(className);
+        int superClass = pool.classRef(SUPERCLASS);
+        int codeName = pool.utf8("Code");
+        int constructorName = pool.utf8("<init>");
+        int constructorType = pool.utf8("([Ljava/lang/Object;)V");
+        int superConstructor = pool.method(SUPERCLASS, "<init>", "([Ljava/lang/Object;)V");
+        int invokeName = pool.utf8("invoke");
+        int invokeType = pool.utf8(INVOKE);
+
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(0xCAFEBABE);
+            // Java 5 class files don't need stack map frames
+            out.writeShort(0);
+            out.writeShort(49);
+            pool.write(out);
+            out.writeShort(0x0001 | 0x0010 | 0x0020); // public final super
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(0); // interfaces
+            out.writeShort(0); // fields
+            out.writeShort(2); // methods
+
+            // public <init>(Object[] constants) { super(constants); }
+            byte[] constructor = {
+                    (byte) Op.ALOAD_0, (byte) Op.ALOAD_1,
+                    (byte) Op.INVOKESPECIAL, (byte) (superConstructor >> 8), (byte) superConstructor,
+                    (byte) Op.RETURN
+            };
+            writeMethod(out, constructorName, constructorType, codeName, 2, 2, constructor);
+            writeMethod(out, invokeName, invokeType, codeName, maxStack, maxLocals, code.toByteArray());
+
+            out.writeShort(0); // attributes
+            return bytes.toByteArray();
+        } catch(IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void writeMethod(DataOutputStream out, int name, int descriptor, int codeName,
+                                    int maxStack, int maxLocals, byte[] code) throws IOException {
+        out.writeShort(0x0001); // public
+        out.writeShort(name);
+        out.writeShort(descriptor);
+        out.writeShort(1);
+        out.writeShort(codeName);
+        out.writeInt(12 + code.length);
+        out.writeShort(maxStack);
+        out.writeShort(maxLocals);
+        out.writeInt(code.length);
+        out.write(code);
+        out.writeShort(0); // exception table
+        out.writeShort(0); // attributes
+    }
+
+    private static final class Op {
+        static final int ACONST_NULL = 0x01;
+        static final int ICONST_0 = 0x03;
+        static final int BIPUSH = 0x10;
+        static final int SIPUSH = 0x11;
+        static final int ALOAD = 0x19;
+        static final int ALOAD_0 = 0x2a;
+        static final int ALOAD_1 = 0x2b;
+        static final int ALOAD_2 = 0x2c;
+        static final int AALOAD = 0x32;
+        static final int ASTORE = 0x3a;
+        static final int AASTORE = 0x53;
+        static final int POP = 0x57;
+        static final int DUP = 0x59;
+        static final int IFEQ = 0x99;
+        static final int IFNE = 0x9a;
+        static final int GOTO = 0xa7;
+        static final int ARETURN = 0xb0;
+        static final int RETURN = 0xb1;
+        static final int GETFIELD = 0xb4;
+        static final int INVOKESPECIAL = 0xb7;
+        static final int INVOKESTATIC = 0xb8;
+        static final int ANEWARRAY = 0xbd;
+    }
+
+    private static class CodeBuffer {
+        private byte[] bytes = new byte[256];
+        private int size = 0;
+
+        void u1(int value) {
+            if(size == bytes.length) bytes = Arrays.copyOf(bytes, size * 2);
+            bytes[size++] = (byte) value;
+        }
+
+        void u2(int value) {
+            u1(value >> 8);
+            u1(value);
+        }
+
+        void patch(int at, int value) {
+            bytes[at] = (byte) (value >> 8);
+            bytes[at + 1] = (byte) value;
+        }
+
+        int size() {
+            return size;
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(bytes, size);
+        }
+    }
+
+    private static class ConstantPool {
+        private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        private final DataOutputStream out = new DataOutputStream(bytes);
+        private final Map<String, Integer> entries = new HashMap<>();
+        private int count = 1;
+
+        int utf8(String value) {
+            Integer index = entries.get("U" + value);
+            if(index != null) return index;
+            try {
+                out.writeByte(1);
+                out.writeUTF(value);
+            } catch(IOException e) {
+                throw new IllegalStateException(e);
+            }
+            entries.put("U" + value, count);
+            return count++;
+        }
+
+        int classRef(String name) {
+            return entry("C" + name, 7, utf8(name), -1);
+        }
+
+        int field(String owner, String name, String descriptor) {
+            return entry("F" + owner + "." + name + descriptor, 9, classRef(owner), nameAndType(name, descriptor));
+        }
+
+        int method(String owner, String name, String descriptor) {
+            return entry("M" + owner + "." + name + descriptor, 10, classRef(owner), nameAndType(name, descriptor));
+        }
+
+        private int nameAndType(String name, String descriptor) {
+            return entry("N" + name + descriptor, 12, utf8(name), utf8(descriptor));
+        }
+
+        private int entry(String key, int tag, int first, int second) {
+            Integer index = entries.get(key);
+            if(index != null) return index;
+            try {
+                out.writeByte(tag);
+                out.writeShort(first);
+                if(second >= 0) out.writeShort(second);
+            } catch(IOException e) {
+                throw new IllegalStateException(e);
+            }
+            entries.put(key, count);
+            return count++;
+        }
+
+        void write(DataOutputStream to) throws IOException {
+            to.writeShort(count);
+            to.write(bytes.toByteArray());
+        }
+    }
+}
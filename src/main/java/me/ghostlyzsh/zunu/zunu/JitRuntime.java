@@ -0,0 +1,126 @@
+package me.ghostlyzsh.zunu.zunu;
+
+import java.util.Arrays;
+
+// Entry points for code generated by JitCompiler. Tokens are passed as
+// Object so the generated code doesn't need to cast them.
+public final class JitRuntime {
+    private JitRuntime() {}
+
+    public static Object add(Object left, Object right, Object operator, Interpreter interpreter) {
+        Object result = Operators.add((Token) operator, left, right);
+        if(ConcatString.isString(result)) interpreter.watchdog.allocate(Watchdog.concatBytes(left, result));
+        return result;
+    }
+
+    public static Object subtract(Object left, Object right, Object operator) {
+        return Operators.subtract((Token) operator, left, right);
+    }
+
+    public static Object multiply(Object left, Object right, Object operator) {
+        return Operators.multiply((Token) operator, left, right);
+    }
+
+    public static Object divide(Object left, Object right, Object operator) {
+        return Operators.divide((Token) operator, left, right);
+    }
+
+    public static Object greater(Object left, Object right, Object operator) {
+        return Operators.greater((Token) operator, left, right);
+    }
+
+    public static Object greaterEqual(Object left, Object right, Object operator) {
+        return Operators.greaterEqual((Token) operator, left, right);
+    }
+
+    public static Object less(Object left, Object right, Object operator) {
+        return Operators.less((Token) operator, left, right);
+    }
+
+    public static Object lessEqual(Object left, Object right, Object operator) {
+        return Operators.lessEqual((Token) operator, left, right);
+    }
+
+    public static Object equal(Object left, Object right) {
+        return Operators.isEqual(left, right);
+    }
+
+    public static Object notEqual(Object left, Object right) {
+        return !Operators.isEqual(left, right);
+    }
+
+    public static Object negate(Object right, Object operator) {
+        return Operators.negate((Token) operator, right);
+    }
+
+    public static Object not(Object right) {
+        return !Operators.isTruthy(right);
+    }
+
+    public static void loop(Interpreter interpreter, Object keyword) {
+        interpreter.watchdog.step((Token) keyword);
+    }
+
+    public static boolean isTruthy(Object value) {
+        return Operators.isTruthy(value);
+    }
+
+    public static Object getGlobal(Interpreter interpreter, int index, Object name) {
+        return interpreter.globals.get(index, (Token) name);
+    }
+
+    public static void setGlobal(Object value, Interpreter interpreter, int index, Object name) {
+        interpreter.globals.assign(index, (Token) name, value);
+    }
+
+    public static Object call(Object callee, Object[] arguments, Interpreter interpreter, Object paren) {
+        ZunuCallable function = checkCallee(callee, arguments, paren);
+        interpreter.watchdog.enter((Token) paren);
+        Profiler profiler = interpreter.profiler;
+        if(profiler != null) profiler.enter(function, (Token) paren);
+        try {
+            if(function instanceof FrameCallable) {
+                FrameCallable callable = (FrameCallable) function;
+                Environment frame = callable.newFrame();
+                interpreter.allocateFrame(frame.slots.length);
+                System.arraycopy(arguments, 0, frame.slots, 0, arguments.length);
+                return callable.invoke(interpreter, frame);
+            }
+            return function.call(interpreter, Arrays.asList(arguments));
+        } catch(RuntimeError e) {
+            throw e.at((Token) paren);
+        } finally {
+            interpreter.watchdog.exit();
+            if(profiler != null) profiler.exit();
+        }
+    }
+
+    // a call in a return of a compiled function, the function returns the
+    // TailCall to the invoke that called it
+    public static Object tailCall(Object callee, Object[] arguments, Interpreter interpreter, Object paren) {
+        ZunuCallable function = checkCallee(callee, arguments, paren);
+        if(!(function instanceof FrameCallable)) return call(callee, arguments, interpreter, paren);
+
+        FrameCallable callable = (FrameCallable) function;
+        Environment frame = callable.newFrame();
+        interpreter.allocateFrame(frame.slots.length);
+        System.arraycopy(arguments, 0, frame.slots, 0, arguments.length);
+        interpreter.watchdog.step((Token) paren);
+        Profiler profiler = interpreter.profiler;
+        if(profiler != null) profiler.replace(function, (Token) paren);
+        return new TailCall(callable, frame);
+    }
+
+    private static ZunuCallable checkCallee(Object callee, Object[] arguments, Object paren) {
+        if(!(callee instanceof ZunuCallable)) {
+            throw new RuntimeError((Token) paren, "Can only call functions and classes.");
+        }
+
+        ZunuCallable function = (ZunuCallable) callee;
+        if(function.arity() != -1 && arguments.length != function.arity()) {
+            throw new RuntimeError((Token) paren, "Expected " + function.arity() +
+                    " arguments but got " + arguments.length);
+        }
+        return function;
+    }
+}
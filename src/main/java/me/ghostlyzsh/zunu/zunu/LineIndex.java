@@ -0,0 +1,47 @@
+package me.ghostlyzsh.zunu.zunu;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+// Byte offsets at which each line of a source starts. The Scanner fills it
+// in as it passes newlines, error reports then find the line of an offset
+// with a binary search and cut the line out without scanning for it.
+final class LineIndex {
+    private int[] starts = new int[64];
+    private int count = 1;
+
+    // offset is where the '\n' ending a line is
+    void newline(int offset) {
+        if(count == starts.length) {
+            starts = Arrays.copyOf(starts, count * 2);
+        }
+        starts[count++] = offset + 1;
+    }
+
+    static LineIndex of(byte[] source) {
+        LineIndex index = new LineIndex();
+        for(int i = 0; i < source.length; i++) {
+            if(source[i] == '\n') index.newline(i);
+        }
+        return index;
+    }
+
+    // 1 based, like Token.line
+    int line(int offset) {
+        int found = Arrays.binarySearch(starts, 0, count, offset);
+        // not a line start, so it's in the line before the insertion point
+        return found >= 0 ? found + 1 : -found - 1;
+    }
+
+    // 1 based, in bytes from the start of the line
+    int column(int offset) {
+        return offset - starts[line(offset) - 1] + 1;
+    }
+
+    String text(byte[] source, int line) {
+        int start = starts[line - 1];
+        int end = line < count ? starts[line] - 1 : source.length;
+        if(end > start && source[end - 1] == '\r') end--;
+        return new String(source, start, end - start, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,46 @@
+package me.ghostlyzsh.zunu.zunu;
+
+// Instructions of the VM. Operands follow the opcode inline in the code
+// array, the comment on each opcode lists them.
+final class OpCode {
+    private OpCode() {}
+
+    static final int CONSTANT = 0;        // index into the constant pool
+    static final int NULL = 1;
+    static final int TRUE = 2;
+    static final int FALSE = 3;
+    static final int POP = 4;
+    static final int GET_LOCAL = 5;       // depth, slot
+    static final int SET_LOCAL = 6;       // depth, slot
+    static final int DEFINE_LOCAL = 7;    // slot
+    static final int GET_GLOBAL = 8;      // index into Globals
+    static final int SET_GLOBAL = 9;      // index into Globals
+    static final int DEFINE_GLOBAL = 10;  // index into Globals
+    static final int EQUAL = 11;
+    static final int NOT_EQUAL = 12;
+    static final int GREATER = 13;
+    static final int GREATER_EQUAL = 14;
+    static final int LESS = 15;
+    static final int LESS_EQUAL = 16;
+    static final int ADD = 17;
+    static final int SUBTRACT = 18;
+    static final int MULTIPLY = 19;
+    static final int DIVIDE = 20;
+    static final int NOT = 21;
+    static final int NEGATE = 22;
+    static final int JUMP = 23;           // target
+    static final int JUMP_IF_FALSE = 24;  // target, pops the condition
+    static final int AND = 25;            // target, keeps a falsy left operand
+    static final int OR = 26;             // target, keeps a truthy left operand
+    static final int LOOP = 27;           // target, a backwards jump
+    static final int CALL = 28;           // argument count
+    static final int CLOSURE = 29;        // index of the Chunk constant
+    static final int PUSH_FRAME = 30;     // frame size
+    static final int POP_FRAME = 31;
+    static final int RETURN = 32;
+    static final int TAIL_CALL = 33;      // argument count, a CALL whose result is returned
+    static final int GET_CELL = 34;       // depth, slot
+    static final int SET_CELL = 35;       // depth, slot
+    static final int DEFINE_CELL = 36;    // slot
+    static final int BOX = 37;            // slot, puts the slot's value in a new Cell
+}
@@ -0,0 +1,140 @@
+package me.ghostlyzsh.zunu.zunu;
+
+// The semantics of every operator, shared by the Interpreter and the VM so
+// both engines promote ints to floats and report errors the same way.
+final class Operators {
+    private Operators() {}
+
+    static Object add(Token operator, Object left, Object right) {
+        if(left instanceof Integer) {
+            if(right instanceof Integer) {
+                return (int)left + (int)right;
+            } else if(right instanceof Float) {
+                return (int)left + (float)right;
+            }
+        } else if(left instanceof Float) {
+            if(right instanceof Integer) {
+                return (float)left + (int)right;
+            } else if(right instanceof Float) {
+                return (float)left + (float)right;
+            }
+        }
+
+        if(ConcatString.isString(left) && ConcatString.isString(right)) {
+            return ConcatString.concat(left, right);
+        }
+
+        throw new RuntimeError(operator, "Operands must be two numbers or strings.");
+    }
+
+    static Object subtract(Token operator, Object left, Object right) {
+        if(left instanceof Integer) {
+            if(right instanceof Integer) {
+                return (int)left - (int)right;
+            } else if(right instanceof Float) {
+                return (int)left - (float)right;
+            }
+        } else if(left instanceof Float) {
+            if(right instanceof Integer) {
+                return (float)left - (int)right;
+            } else if(right instanceof Float) {
+                return (float)left - (float)right;
+            }
+        }
+        throw numberError(operator);
+    }
+
+    static Object multiply(Token operator, Object left, Object right) {
+        if(left instanceof Integer) {
+            if(right instanceof Integer) {
+                return (int)left * (int)right;
+            } else if(right instanceof Float) {
+                return (int)left * (float)right;
+            }
+        } else if(left instanceof Float) {
+            if(right instanceof Integer) {
+                return (float)left * (int)right;
+            } else if(right instanceof Float) {
+                return (float)left * (float)right;
+            }
+        }
+        throw numberError(operator);
+    }
+
+    static Object divide(Token operator, Object left, Object right) {
+        if(left instanceof Integer) {
+            if(right instanceof Integer) {
+                return (int)left / (int)right;
+            } else if(right instanceof Float) {
+                return (int)left / (float)right;
+            }
+        } else if(left instanceof Float) {
+            if(right instanceof Integer) {
+                return (float)left / (int)right;
+            } else if(right instanceof Float) {
+                return (float)left / (float)right;
+            }
+        }
+        throw numberError(operator);
+    }
+
+    static boolean greater(Token operator, Object left, Object right) {
+        if(left instanceof Integer && right instanceof Integer) {
+            return (int)left > (int)right;
+        }
+        return toFloat(operator, left) > toFloat(operator, right);
+    }
+
+    static boolean greaterEqual(Token operator, Object left, Object right) {
+        if(left instanceof Integer && right instanceof Integer) {
+            return (int)left >= (int)right;
+        }
+        return toFloat(operator, left) >= toFloat(operator, right);
+    }
+
+    static boolean less(Token operator, Object left, Object right) {
+        if(left instanceof Integer && right instanceof Integer) {
+            return (int)left < (int)right;
+        }
+        return toFloat(operator, left) < toFloat(operator, right);
+    }
+
+    static boolean lessEqual(Token operator, Object left, Object right) {
+        if(left instanceof Integer && right instanceof Integer) {
+            return (int)left <= (int)right;
+        }
+        return toFloat(operator, left) <= toFloat(operator, right);
+    }
+
+    private static float toFloat(Token operator, Object value) {
+        if(value instanceof Integer) return (int)value;
+        if(value instanceof Float) return (float)value;
+        throw numberError(operator);
+    }
+
+    static Object negate(Token operator, Object right) {
+        if(right instanceof Integer) {
+            return -(int) right;
+        } else if(right instanceof Float) {
+            return -(float) right;
+        }
+        throw new RuntimeError(operator, "Operand must be a number.");
+    }
+
+    static boolean isTruthy(Object object) {
+        if(object == null) return false;
+        if(object instanceof Boolean) return (boolean)object;
+        return true;
+    }
+
+    static boolean isEqual(Object a, Object b) {
+        if(a == null && b == null) return true;
+        if(a == null) return false;
+
+        return ConcatString.flatten(a).equals(ConcatString.flatten(b));
+    }
+
+    private static RuntimeError numberError(Token operator) {
+        return new RuntimeError(operator, "Operands must be a number.");
+    }
+}
@@ -0,0 +1,437 @@
+package me.ghostlyzsh.zunu.zunu;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Rewrites a parsed AST before it is resolved: folds operators whose
+// operands are literals, drops if branches and while loops whose condition
+// is a constant, and drops statements that can never run because they come
+// after a return, break or continue. A chain of + with a string literal in
+// it becomes one Concat, adjacent string literals in the chain are joined.
+//
+// Anything that would fail at runtime is left alone so the error still
+// happens, at the same line. Statements that declare a name are never
+// dropped, the Resolver gives them a slot in the enclosing scope.
+public class Optimizer implements Expr.Visitor<Expr>, Stmt.Visitor<Stmt> {
+    static volatile boolean enabled = true;
+
+    // nodes removed by the last call to optimize
+    int removed = 0;
+    private int functions = 0;
+    private int loops = 0;
+
+    List<Stmt> optimize(List<Stmt> statements) {
+        int before = Counter.count(statements);
+        List<Stmt> optimized = optimizeStatements(statements);
+        removed = before - Counter.count(optimized);
+        return optimized;
+    }
+
+    private List<Stmt> optimizeStatements(List<Stmt> statements) {
+        List<Stmt> optimized = new ArrayList<>(statements.size());
+        boolean reachable = true;
+        for(Stmt statement : statements) {
+            if(!reachable && !declares(statement)) continue;
+
+            Stmt result = optimize(statement);
+            if(result != null) optimized.add(result);
+            if(terminates(statement)) reachable = false;
+        }
+        return optimized;
+    }
+
+    private Stmt optimize(Stmt stmt) {
+        return stmt.accept(this);
+    }
+
+    private Expr optimize(Expr expr) {
+        return expr.accept(this);
+    }
+
+    // whether nothing after this statement in the same list can run
+    private boolean terminates(Stmt stmt) {
+        // top level returns are left to the engines, breaks outside loops
+        // to the Resolver to report
+        if(stmt instanceof Stmt.Return) return functions > 0;
+        if(stmt instanceof Stmt.Break || stmt instanceof Stmt.Continue) return loops > 0;
+        return false;
+    }
+
+    private static boolean declares(Stmt stmt) {
+        if(stmt == null) return false;
+        List<Token> names = new ArrayList<>();
+        Resolver.collectDeclarations(stmt, names);
+        return !names.isEmpty();
+    }
+
+    private static boolean isLiteral(Expr expr) {
+        return expr instanceof Expr.Literal;
+    }
+
+    private static Object value(Expr expr) {
+        return ((Expr.Literal) expr).value;
+    }
+
+    @Override
+    public Stmt visitBlockStmt(Stmt.Block stmt) {
+        return new Stmt.Block(optimizeStatements(stmt.statements));
+    }
+
+    @Override
+    public Stmt visitExpressionStmt(Stmt.Expression stmt) {
+        Expr expression = optimize(stmt.expression);
+        // a bare constant does nothing
+        if(isLiteral(expression)) return null;
+        return new Stmt.Expression(expression);
+    }
+
+    @Override
+    public Stmt visitFunctionStmt(Stmt.Function stmt) {
+        return new Stmt.Function(stmt.name, stmt.params, optimizeFunction(stmt.body));
+    }
+
+    private List<Stmt> optimizeFunction(List<Stmt> body) {
+        int enclosingLoops = loops;
+        functions++;
+        loops = 0;
+        List<Stmt> optimized = optimizeStatements(body);
+        loops = enclosingLoops;
+        functions--;
+        return optimized;
+    }
+
+    @Override
+    public Stmt visitIfStmt(Stmt.If stmt) {
+        Expr condition = optimize(stmt.condition);
+        Stmt thenBranch = optimize(stmt.thenBranch);
+        Stmt elseBranch = stmt.elseBranch == null ? null : optimize(stmt.elseBranch);
+        if(thenBranch == null) thenBranch = new Stmt.Block(new ArrayList<>());
+
+        if(isLiteral(condition)) {
+            boolean taken = Operators.isTruthy(value(condition));
+            Stmt dropped = taken ? elseBranch : thenBranch;
+            if(!declares(dropped)) {
+                return taken ? thenBranch : elseBranch;
+            }
+        }
+        return new Stmt.If(condition, thenBranch, elseBranch);
+    }
+
+    @Override
+    public Stmt visitWhileStmt(Stmt.While stmt) {
+        Expr condition = optimize(stmt.condition);
+        loops++;
+        Stmt body = optimize(stmt.body);
+        loops--;
+        if(body == null) body = new Stmt.Block(new ArrayList<>());
+
+        if(isLiteral(condition) && !Operators.isTruthy(value(condition)) && !declares(body)) {
+            return null;
+        }
+        return new Stmt.While(stmt.keyword, condition, body);
+    }
+
+    @Override
+    public Stmt visitReturnStmt(Stmt.Return stmt) {
+        Expr value = stmt.value == null ? null : optimize(stmt.value);
+        return new Stmt.Return(stmt.keyword, value);
+    }
+
+    @Override
+    public Stmt visitLetStmt(Stmt.Let stmt) {
+        Expr initializer = stmt.initializer == null ? null : optimize(stmt.initializer);
+        return new Stmt.Let(stmt.name, initializer);
+    }
+
+    @Override
+    public Stmt visitBreakStmt(Stmt.Break stmt) {
+        return stmt;
+    }
+
+    @Override
+    public Stmt visitContinueStmt(Stmt.Continue stmt) {
+        return stmt;
+    }
+
+    @Override
+    public Expr visitAssignExpr(Expr.Assign expr) {
+        return new Expr.Assign(expr.name, optimize(expr.value));
+    }
+
+    @Override
+    public Expr visitBinaryExpr(Expr.Binary expr) {
+        Expr left = optimize(expr.left);
+        Expr right = optimize(expr.right);
+        if(isLiteral(left) && isLiteral(right)) {
+            try {
+                return new Expr.Literal(fold(expr.operator, value(left), value(right)));
+            } catch(RuntimeError | ArithmeticException e) {
+                // leave it for the engine to report
+            }
+        }
+        if(expr.operator.type == TokenType.PLUS) return concat(left, expr.operator, right);
+        return new Expr.Binary(left, expr.operator, right);
+    }
+
+    private static Expr concat(Expr left, Token operator, Expr right) {
+        List<Expr> operands = new ArrayList<>();
+        List<Token> operators = new ArrayList<>();
+        chain(left, operands, operators);
+        operators.add(operator);
+        operands.add(right);
+
+        // "a" + x + "b" + "c" is "a" + x + "bc", if x isn't a string the +
+        // before it fails either way. The first two operands were already
+        // folded if they are both literals
+        boolean strings = isString(operands.get(0));
+        for(int i = 1; i < operands.size(); i++) {
+            if(!isString(operands.get(i))) continue;
+            strings = true;
+            if(isString(operands.get(i - 1))) {
+                Object joined = ConcatString.flatten(
+                        ConcatString.concat(value(operands.get(i - 1)), value(operands.get(i))));
+                operands.set(i - 1, new Expr.Literal(joined));
+                operands.remove(i);
+                operators.remove(i - 1);
+                i--;
+            }
+        }
+
+        if(strings && operators.size() > 1) return new Expr.Concat(operands, operators);
+        if(operators.size() == 1) return new Expr.Binary(operands.get(0), operators.get(0), operands.get(1));
+        return new Expr.Binary(left, operator, right);
+    }
+
+    // the operands of a + chain already optimized, in the order they are
+    // evaluated
+    private static void chain(Expr expr, List<Expr> operands, List<Token> operators) {
+        if(expr instanceof Expr.Concat) {
+            operands.addAll(((Expr.Concat) expr).operands);
+            operators.addAll(((Expr.Concat) expr).operators);
+        } else if(expr instanceof Expr.Binary && ((Expr.Binary) expr).operator.type == TokenType.PLUS) {
+            Expr.Binary binary = (Expr.Binary) expr;
+            chain(binary.left, operands, operators);
+            operators.add(binary.operator);
+            operands.add(binary.right);
+        } else {
+            operands.add(expr);
+        }
+    }
+
+    private static boolean isString(Expr expr) {
+        return isLiteral(expr) && value(expr) instanceof String;
+    }
+
+    private static Object fold(Token operator, Object left, Object right) {
+        switch(operator.type) {
+            case GREATER: return Operators.greater(operator, left, right);
+            case GREATER_EQUAL: return Operators.greaterEqual(operator, left, right);
+            case LESS: return Operators.less(operator, left, right);
+            case LESS_EQUAL: return Operators.lessEqual(operator, left, right);
+            case BANG_EQUAL: return !Operators.isEqual(left, right);
+            case EQUAL_EQUAL: return Operators.isEqual(left, right);
+            case MINUS: return Operators.subtract(operator, left, right);
+            case PLUS: return ConcatString.flatten(Operators.add(operator, left, right));
+            case SLASH: return Operators.divide(operator, left, right);
+            case STAR: return Operators.multiply(operator, left, right);
+        }
+        throw new IllegalStateException("Unknown binary operator " + operator.type);
+    }
+
+    @Override
+    public Expr visitCallExpr(Expr.Call expr) {
+        Expr callee = optimize(expr.callee);
+        List<Expr> arguments = new ArrayList<>(expr.arguments.size());
+        for(Expr argument : expr.arguments) {
+            arguments.add(optimize(argument));
+        }
+        return new Expr.Call(callee, expr.paren, arguments);
+    }
+
+    @Override
+    public Expr visitAnonFnExpr(Expr.AnonFn expr) {
+        return new Expr.AnonFn(expr.params, optimizeFunction(expr.body));
+    }
+
+    @Override
+    public Expr visitConcatExpr(Expr.Concat expr) {
+        List<Expr> operands = new ArrayList<>(expr.operands.size());
+        for(Expr operand : expr.operands) {
+            operands.add(optimize(operand));
+        }
+        return new Expr.Concat(operands, expr.operators);
+    }
+
+    @Override
+    public Expr visitGroupingExpr(Expr.Grouping expr) {
+        Expr expression = optimize(expr.expression);
+        if(isLiteral(expression)) return expression;
+        return new Expr.Grouping(expression);
+    }
+
+    @Override
+    public Expr visitLiteralExpr(Expr.Literal expr) {
+        return expr;
+    }
+
+    @Override
+    public Expr visitLogicalExpr(Expr.Logical expr) {
+        Expr left = optimize(expr.left);
+        Expr right = optimize(expr.right);
+        if(isLiteral(left)) {
+            // the result is the left operand if it decides the outcome,
+            // otherwise it is whatever the right operand evaluates to
+            boolean truthy = Operators.isTruthy(value(left));
+            boolean decides = expr.operator.type == TokenType.OR ? truthy : !truthy;
+            return decides ? left : right;
+        }
+        return new Expr.Logical(left, expr.operator, right);
+    }
+
+    @Override
+    public Expr visitUnaryExpr(Expr.Unary expr) {
+        Expr right = optimize(expr.right);
+        if(isLiteral(right)) {
+            if(expr.operator.type == TokenType.BANG) {
+                return new Expr.Literal(!Operators.isTruthy(value(right)));
+            }
+            try {
+                return new Expr.Literal(Operators.negate(expr.operator, value(right)));
+            } catch(RuntimeError e) {
+                // leave it for the engine to report
+            }
+        }
+        return new Expr.Unary(expr.operator, right);
+    }
+
+    @Override
+    public Expr visitVariableExpr(Expr.Variable expr) {
+        return expr;
+    }
+
+    // counts the nodes of a tree, the difference before and after
+    // optimizing is what gets reported
+    private static class Counter implements Expr.Visitor<Integer>, Stmt.Visitor<Integer> {
+        private static final Counter INSTANCE = new Counter();
+
+        static int count(List<Stmt> statements) {
+            int count = 0;
+            for(Stmt statement : statements) {
+                count += statement.accept(INSTANCE);
+            }
+            return count;
+        }
+
+        private int count(Stmt stmt) {
+            return stmt == null ? 0 : stmt.accept(this);
+        }
+
+        private int count(Expr expr) {
+            return expr == null ? 0 : expr.accept(this);
+        }
+
+        @Override
+        public Integer visitBlockStmt(Stmt.Block stmt) {
+            return 1 + count(stmt.statements);
+        }
+
+        @Override
+        public Integer visitExpressionStmt(Stmt.Expression stmt) {
+            return 1 + count(stmt.expression);
+        }
+
+        @Override
+        public Integer visitFunctionStmt(Stmt.Function stmt) {
+            return 1 + count(stmt.body);
+        }
+
+        @Override
+        public Integer visitIfStmt(Stmt.If stmt) {
+            return 1 + count(stmt.condition) + count(stmt.thenBranch) + count(stmt.elseBranch);
+        }
+
+        @Override
+        public Integer visitWhileStmt(Stmt.While stmt) {
+            return 1 + count(stmt.condition) + count(stmt.body);
+        }
+
+        @Override
+        public Integer visitReturnStmt(Stmt.Return stmt) {
+            return 1 + count(stmt.value);
+        }
+
+        @Override
+        public Integer visitLetStmt(Stmt.Let stmt) {
+            return 1 + count(stmt.initializer);
+        }
+
+        @Override
+        public Integer visitBreakStmt(Stmt.Break stmt) {
+            return 1;
+        }
+
+        @Override
+        public Integer visitContinueStmt(Stmt.Continue stmt) {
+            return 1;
+        }
+
+        @Override
+        public Integer visitAssignExpr(Expr.Assign expr) {
+            return 1 + count(expr.value);
+        }
+
+        @Override
+        public Integer visitBinaryExpr(Expr.Binary expr) {
+            return 1 + count(expr.left) + count(expr.right);
+        }
+
+        @Override
+        public Integer visitCallExpr(Expr.Call expr) {
+            int count = 1 + count(expr.callee);
+            for(Expr argument : expr.arguments) {
+                count += count(argument);
+            }
+            return count;
+        }
+
+        @Override
+        public Integer visitAnonFnExpr(Expr.AnonFn expr) {
+            return 1 + count(expr.body);
+        }
+
+        // one node per + it stands for
+        @Override
+        public Integer visitConcatExpr(Expr.Concat expr) {
+            int count = expr.operators.size();
+            for(Expr operand : expr.operands) {
+                count += count(operand);
+            }
+            return count;
+        }
+
+        @Override
+        public Integer visitGroupingExpr(Expr.Grouping expr) {
+            return 1 + count(expr.expression);
+        }
+
+        @Override
+        public Integer visitLiteralExpr(Expr.Literal expr) {
+            return 1;
+        }
+
+        @Override
+        public Integer visitLogicalExpr(Expr.Logical expr) {
+            return 1 + count(expr.left) + count(expr.right);
+        }
+
+        @Override
+        public Integer visitUnaryExpr(Expr.Unary expr) {
+            return 1 + count(expr.right);
+        }
+
+        @Override
+        public Integer visitVariableExpr(Expr.Variable expr) {
+            return 1;
+        }
+    }
+}
@@ -7,11 +7,11 @@ import java.util.List;
 public class Parser {
     private static class ParseError extends RuntimeException {}
 
-    private final List<Token> tokens;
+    private final TokenBuffer tokens;
     private int current = 0;
     private final String name;
 
-    Parser(List<Token> tokens, String name) {
+    Parser(TokenBuffer tokens, String name) {
         this.tokens = tokens;
         this.name = name;
     }
@@ -53,16 +53,19 @@ public class Parser {
     }
 
     private Stmt continueStatement() {
+        Token keyword = previous();
         consume(TokenType.SEMICOLON, "Expected ';' after continue");
-        return new Stmt.Continue();
+        return new Stmt.Continue(keyword);
     }
 
     private Stmt breakStatement() {
+        Token keyword = previous();
         consume(TokenType.SEMICOLON, "Expected ';' after break");
-        return new Stmt.Break();
+        return new Stmt.Break(keyword);
     }
 
     private Stmt forStatement() {
+        Token keyword = previous();
         consume(TokenType.LEFT_PAREN, "Expected '(' after 'for'");
 
         Stmt initializer;
@@ -94,7 +97,7 @@ public class Parser {
         }
 
         if(condition == null) condition = new Expr.Literal(true);
-        body = new Stmt.While(condition, body);
+        body = new Stmt.While(keyword, condition, body);
 
         if(initializer != null) {
             body = new Stmt.Block(Arrays.asList(initializer, body));
@@ -129,7 +132,8 @@ public class Parser {
     }
 
     private Stmt varDeclaration() {
-        Token name = consume(TokenType.IDENTIFIER, "Expected variable name.");
+        consume(TokenType.IDENTIFIER, "Expected variable name.");
+        Token name = previous();
 
         Expr initializer = null;
         if(match(TokenType.EQUAL)) {
@@ -141,12 +145,13 @@ public class Parser {
     }
 
     private Stmt whileStatement() {
+        Token keyword = previous();
         consume(TokenType.LEFT_PAREN, "Expected '(' after 'while'");
         Expr condition = expression();
         consume(TokenType.RIGHT_PAREN, "Expected ')' after the condition");
         Stmt body = statement();
 
-        return new Stmt.While(condition, body);
+        return new Stmt.While(keyword, condition, body);
     }
 
     private Stmt expressionStatement() {
@@ -158,7 +163,8 @@ public class Parser {
     private Stmt.Function function(String kind) {
         Token name = null;
         if(check(TokenType.IDENTIFIER)) {
-            name = advance();
+            advance();
+            name = previous();
         }
         consume(TokenType.LEFT_PAREN, "Expected '(' after " + kind + " name");
         List<Token> parameters = new ArrayList<>();
@@ -167,7 +173,8 @@ public class Parser {
                 if(parameters.size() >= 255) {
                     error(peek(), "Can't have more than 255 parameters");
                 }
-                parameters.add(consume(TokenType.IDENTIFIER, "Expected parameter name"));
+                consume(TokenType.IDENTIFIER, "Expected parameter name");
+                parameters.add(previous());
             } while(match(TokenType.COMMA));
         }
         consume(TokenType.RIGHT_PAREN, "Expected ')' after parameters");
@@ -195,7 +202,7 @@ public class Parser {
         Expr expr = anonFn();
 
         if(match(TokenType.EQUAL)) {
-            Token equals = previous();
+            int equals = current - 1;
             Expr value = assignment();
 
             if(expr instanceof Expr.Variable) {
@@ -203,7 +210,7 @@ public class Parser {
                 return new Expr.Assign(name, value);
             }
 
-            error(equals, "Invalid assignment target");
+            error(tokens.token(equals), "Invalid assignment target");
         }
 
         return expr;
@@ -218,7 +225,8 @@ public class Parser {
                     if(parameters.size() >= 255) {
                         error(peek(), "Can't have more than 255 parameters");
                     }
-                    parameters.add(consume(TokenType.IDENTIFIER, "Expected parameter name"));
+                    consume(TokenType.IDENTIFIER, "Expected parameter name");
+                    parameters.add(previous());
                 } while(match(TokenType.COMMA));
             }
             consume(TokenType.RIGHT_PAREN, "Expected ')' after parameters");
@@ -350,7 +358,8 @@ public class Parser {
             } while(match(TokenType.COMMA));
         }
 
-        Token paren = consume(TokenType.RIGHT_PAREN, "Expect ')' after arguments.");
+        consume(TokenType.RIGHT_PAREN, "Expect ')' after arguments.");
+        Token paren = previous();
 
         return new Expr.Call(callee, paren, arguments);
     }
@@ -375,7 +384,7 @@ public class Parser {
         if(match(TokenType.NULL)) return new Expr.Literal(null);
 
         if(match(TokenType.INT, TokenType.FLOAT, TokenType.STRING)) {
-            return new Expr.Literal(previous().literal);
+            return new Expr.Literal(tokens.literal(current - 1));
         }
 
         if(match(TokenType.IDENTIFIER)) {
@@ -401,32 +410,36 @@ public class Parser {
         return false;
     }
 
-    private Token consume(TokenType type, String message) {
-        if(check(type)) return advance();
+    private void consume(TokenType type, String message) {
+        if(check(type)) {
+            advance();
+            return;
+        }
 
         throw error(peek(), message);
     }
 
     private boolean check(TokenType type) {
         if (isAtEnd()) return false;
-        return peek().type == type;
+        return tokens.type(current) == type;
     }
 
-    private Token advance() {
+    private void advance() {
         if (!isAtEnd()) current++;
-        return previous();
     }
 
     private boolean isAtEnd() {
-        return peek().type == TokenType.EOF;
+        return tokens.type(current) == TokenType.EOF;
     }
 
+    // peek and previous make a Token, only call them for tokens that end
+    // up in the AST or in an error
     private Token peek() {
-        return tokens.get(current);
+        return tokens.token(current);
     }
 
     private Token previous() {
-        return tokens.get(current - 1);
+        return tokens.token(current - 1);
     }
 
     private ParseError error(Token token, String message) {
@@ -437,9 +450,9 @@ public class Parser {
     private void synchronize() {
         advance();
         while(!isAtEnd()) {
-            if(previous().type == TokenType.SEMICOLON) return;
+            if(tokens.type(current - 1) == TokenType.SEMICOLON) return;
 
-            switch(peek().type) {
+            switch(tokens.type(current)) {
                 case FOR: case FN: case IF: case RETURN:
                 case LET: case WHILE:
                     return;
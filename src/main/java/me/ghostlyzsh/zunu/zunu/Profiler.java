@@ -0,0 +1,119 @@
+package me.ghostlyzsh.zunu.zunu;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+// Samples which script functions a script is in. Every engine pushes the
+// function and the line it was called from onto a shadow stack when it
+// makes a call, and a timer thread copies the stack every interval. The
+// samples are written in the collapsed stack format flame graph tools read,
+// one line per distinct stack with the number of times it was seen.
+//
+// The stack is only written by the thread running the script and read
+// racily by the timer, a sample may be off by a frame now and then.
+class Profiler {
+    // deeper frames are counted but not recorded
+    private static final int MAX_FRAMES = 256;
+
+    private static final ScheduledExecutorService timer = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "Zunu Profiler");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final String script;
+    private final Object[] callees = new Object[MAX_FRAMES];
+    private final int[] lines = new int[MAX_FRAMES];
+    private volatile int depth = 0;
+
+    // the Interpreter running the script, replaced when it is reloaded
+    private volatile Interpreter interpreter;
+    private final Map<String, Integer> samples = new ConcurrentHashMap<>();
+    private ScheduledFuture<?> sampling;
+
+    Profiler(String script) {
+        this.script = script;
+    }
+
+    void start(long intervalMillis) {
+        sampling = timer.scheduleAtFixedRate(this::sample, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    void stop() {
+        sampling.cancel(false);
+        Interpreter interpreter = this.interpreter;
+        if(interpreter != null) interpreter.profiler = null;
+    }
+
+    void attach(Interpreter interpreter) {
+        depth = 0;
+        this.interpreter = interpreter;
+        interpreter.profiler = this;
+    }
+
+    void enter(Object callee, Token paren) {
+        int depth = this.depth;
+        if(depth < MAX_FRAMES) {
+            callees[depth] = callee;
+            lines[depth] = paren.line;
+        }
+        this.depth = depth + 1;
+    }
+
+    // a tail call takes the place of the function making it
+    void replace(Object callee, Token paren) {
+        int depth = this.depth;
+        if(depth > 0 && depth <= MAX_FRAMES) {
+            callees[depth - 1] = callee;
+            lines[depth - 1] = paren.line;
+        }
+    }
+
+    void exit() {
+        // frames entered before the profiler was attached aren't counted
+        if(depth > 0) depth--;
+    }
+
+    private void sample() {
+        Interpreter interpreter = this.interpreter;
+        if(interpreter == null || !interpreter.running) return;
+
+        int depth = Math.min(this.depth, MAX_FRAMES);
+        StringBuilder stack = new StringBuilder(script);
+        for(int i = 0; i < depth; i++) {
+            stack.append(';').append(name(callees[i])).append(':').append(lines[i]);
+        }
+        samples.merge(stack.toString(), 1, Integer::sum);
+    }
+
+    private static String name(Object callee) {
+        if(callee instanceof ZunuFunction) return ((ZunuFunction) callee).name();
+        if(callee instanceof VmFunction && ((VmFunction) callee).chunk.name != null) {
+            return ((VmFunction) callee).chunk.name;
+        }
+        if(callee instanceof ZunuAnonFunction || callee instanceof VmFunction) return "<anon fn>";
+        return "<native fn>";
+    }
+
+    // writes the samples taken so far, returns how many there were
+    int write(Path path) throws IOException {
+        Files.createDirectories(path.getParent());
+        int total = 0;
+        try(Writer out = Files.newBufferedWriter(path, StandardCharsets.UTF_8)) {
+            for(Map.Entry<String, Integer> sample : samples.entrySet()) {
+                out.write(sample.getKey() + " " + sample.getValue() + "\n");
+                total += sample.getValue();
+            }
+        }
+        return total;
+    }
+}
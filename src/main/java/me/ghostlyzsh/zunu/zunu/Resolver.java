@@ -0,0 +1,457 @@
+package me.ghostlyzsh.zunu.zunu;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Stack;
+
+public class Resolver implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+    private static final int[] NONE = new int[0];
+
+    private static class Local {
+        final int slot;
+        final int function;
+        boolean defined = false;
+        // assigned, declared again or declared inside a loop of its scope
+        boolean changes = false;
+        // read or written by a closure
+        boolean captured = false;
+        // captured by a closure made before the declaration can have run
+        boolean early = false;
+        // the nodes that use the slot, told whether it is boxed once the
+        // scope ends
+        final List<Object> uses = new ArrayList<>();
+
+        Local(int slot, int function) {
+            this.slot = slot;
+            this.function = function;
+        }
+
+        // a closure copies the value of a local that never changes after
+        // it is made, anything else has to be shared through a Cell
+        boolean boxed() {
+            return captured && (changes || early);
+        }
+    }
+
+    private static class Scope {
+        final Map<String, Local> locals = new HashMap<>();
+        // loops the scope is already inside of when it starts
+        final int loops;
+        // the slots boxed in a Cell, known once the scope ends
+        int[] cells = NONE;
+
+        Scope(int loops) {
+            this.loops = loops;
+        }
+    }
+
+    // a function being resolved and the enclosing functions' locals it
+    // captures, in the order its captured frame holds them
+    private static class Closure {
+        // index of the function's own scope in scopes
+        final int scope;
+        final Map<Local, Integer> captures = new HashMap<>();
+        final List<Integer> depths = new ArrayList<>();
+        final List<Integer> slots = new ArrayList<>();
+        int frameSize;
+        int[] cells;
+
+        Closure(int scope) {
+            this.scope = scope;
+        }
+
+        int[] depths() {
+            return toArray(depths);
+        }
+
+        int[] slots() {
+            return toArray(slots);
+        }
+
+        private static int[] toArray(List<Integer> list) {
+            int[] array = new int[list.size()];
+            for(int i = 0; i < array.length; i++) {
+                array[i] = list.get(i);
+            }
+            return array;
+        }
+    }
+
+    private final Interpreter interpreter;
+    private final String name;
+    private final Stack<Scope> scopes = new Stack<>();
+    // the functions we are nested in, innermost last
+    private final List<Closure> closures = new ArrayList<>();
+    // how many function bodies we are nested in, used to tell apart reads
+    // from closures and reads from the scope's own statements
+    private int function = 0;
+    // loops we are in inside the innermost function
+    private int loops = 0;
+
+    Resolver(Interpreter interpreter, String name) {
+        this.interpreter = interpreter;
+        this.name = name;
+    }
+
+    void resolve(List<Stmt> statements) {
+        // globals can be used by functions before they are declared,
+        // so collect every name the top level defines first
+        for(Token declaration : declarations(statements)) {
+            interpreter.globals.declare(declaration.lexeme());
+        }
+
+        resolveStatements(statements);
+    }
+
+    private void resolveStatements(List<Stmt> statements) {
+        for(Stmt statement : statements) {
+            resolve(statement);
+        }
+    }
+
+    private void resolve(Stmt stmt) {
+        stmt.accept(this);
+    }
+
+    private void resolve(Expr expr) {
+        expr.accept(this);
+    }
+
+    private void beginScope(List<Token> declarations) {
+        scopes.push(new Scope(loops));
+        // declare everything up front, closures in this scope see them
+        for(Token declaration : declarations) {
+            declare(declaration);
+        }
+    }
+
+    // the size of the scope's frame is how many locals it has
+    private Scope endScope() {
+        Scope scope = scopes.pop();
+        List<Integer> cells = new ArrayList<>();
+        for(Local local : scope.locals.values()) {
+            boolean boxed = local.boxed();
+            if(boxed) cells.add(local.slot);
+            for(Object use : local.uses) {
+                setCell(use, boxed);
+            }
+        }
+        if(!cells.isEmpty()) scope.cells = Closure.toArray(cells);
+        return scope;
+    }
+
+    private Local declare(Token name) {
+        Map<String, Local> locals = scopes.peek().locals;
+        Local local = locals.get(name.lexeme());
+        // redeclaring a name in the same scope reuses its slot
+        if(local == null) {
+            local = new Local(locals.size(), function);
+            locals.put(name.lexeme(), local);
+        }
+        return local;
+    }
+
+    // declaration is the Let or Function defining the name, null for a
+    // parameter
+    private int define(Token name, Stmt declaration) {
+        if(scopes.isEmpty()) {
+            return interpreter.globals.declare(name.lexeme());
+        }
+
+        Local local = declare(name);
+        if(local.defined || loops > scopes.peek().loops) local.changes = true;
+        local.defined = true;
+        if(declaration != null) local.uses.add(declaration);
+        return local.slot;
+    }
+
+    private void resolveLocal(Token name, Expr expr) {
+        for(int i = scopes.size() - 1; i >= 0; i--) {
+            Local local = scopes.get(i).locals.get(name.lexeme());
+            // the scope's own statements can't see a local before its
+            // declaration runs, they see the enclosing one instead
+            if(local == null || (!local.defined && local.function == function)) {
+                continue;
+            }
+
+            local.uses.add(expr);
+            if(expr instanceof Expr.Assign) local.changes = true;
+            if(local.function == function) {
+                setAddress(expr, scopes.size() - 1 - i, local.slot);
+                return;
+            }
+
+            // an enclosing function's local, the captured frame sits just
+            // outside this function's own scope
+            local.captured = true;
+            if(!local.defined) local.early = true;
+            Closure closure = closures.get(closures.size() - 1);
+            setAddress(expr, scopes.size() - closure.scope, capture(closures.size() - 1, local, i));
+            return;
+        }
+
+        if(!interpreter.globals.isDeclared(name.lexeme())) {
+            error(name, "Undefined variable '" + name.lexeme() + "'.");
+        }
+        setAddress(expr, -1, interpreter.globals.declare(name.lexeme()));
+    }
+
+    // returns where the closure at the given index keeps the local in
+    // scope, capturing it in every function between it and the local
+    private int capture(int index, Local local, int scope) {
+        Closure closure = closures.get(index);
+        Integer capture = closure.captures.get(local);
+        if(capture != null) return capture;
+
+        // the address is read where the function is made, from the scope
+        // just outside its own
+        if(local.function == index) {
+            closure.depths.add(closure.scope - 1 - scope);
+            closure.slots.add(local.slot);
+        } else {
+            int slot = capture(index - 1, local, scope);
+            closure.depths.add(closure.scope - closures.get(index - 1).scope);
+            closure.slots.add(slot);
+        }
+        capture = closure.slots.size() - 1;
+        closure.captures.put(local, capture);
+        return capture;
+    }
+
+    private static void setCell(Object use, boolean cell) {
+        if(use instanceof Expr.Variable) {
+            ((Expr.Variable) use).cell = cell;
+        } else if(use instanceof Expr.Assign) {
+            ((Expr.Assign) use).cell = cell;
+        } else if(use instanceof Stmt.Let) {
+            ((Stmt.Let) use).cell = cell;
+        } else {
+            ((Stmt.Function) use).cell = cell;
+        }
+    }
+
+    private void setAddress(Expr expr, int depth, int slot) {
+        if(expr instanceof Expr.Variable) {
+            ((Expr.Variable) expr).depth = depth;
+            ((Expr.Variable) expr).slot = slot;
+        } else {
+            ((Expr.Assign) expr).depth = depth;
+            ((Expr.Assign) expr).slot = slot;
+        }
+    }
+
+    private Closure resolveFunction(List<Token> params, List<Stmt> body) {
+        function++;
+        // a break in the body can't reach a loop around the function
+        int enclosingLoops = loops;
+        loops = 0;
+        beginScope(new ArrayList<>());
+        Closure closure = new Closure(scopes.size() - 1);
+        closures.add(closure);
+        for(Token param : params) {
+            // parameters are bound to slots by position
+            if(scopes.peek().locals.containsKey(param.lexeme())) {
+                error(param, "Duplicate parameter '" + param.lexeme() + "'.");
+            }
+            define(param, null);
+        }
+        for(Token declaration : declarations(body)) {
+            declare(declaration);
+        }
+        resolveStatements(body);
+        Scope scope = endScope();
+        closures.remove(closures.size() - 1);
+        loops = enclosingLoops;
+        function--;
+        closure.frameSize = scope.locals.size();
+        closure.cells = scope.cells;
+        return closure;
+    }
+
+    // names a list of statements defines in its own scope, including
+    // declarations that are the direct body of an if or while
+    private static List<Token> declarations(List<Stmt> statements) {
+        List<Token> names = new ArrayList<>();
+        for(Stmt statement : statements) {
+            collectDeclarations(statement, names);
+        }
+        return names;
+    }
+
+    static void collectDeclarations(Stmt stmt, List<Token> names) {
+        if(stmt instanceof Stmt.Let) {
+            names.add(((Stmt.Let) stmt).name);
+        } else if(stmt instanceof Stmt.Function) {
+            names.add(((Stmt.Function) stmt).name);
+        } else if(stmt instanceof Stmt.If) {
+            collectDeclarations(((Stmt.If) stmt).thenBranch, names);
+            if(((Stmt.If) stmt).elseBranch != null) {
+                collectDeclarations(((Stmt.If) stmt).elseBranch, names);
+            }
+        } else if(stmt instanceof Stmt.While) {
+            collectDeclarations(((Stmt.While) stmt).body, names);
+        }
+    }
+
+    private void error(Token token, String message) {
+        Zunu.error(token, message, name);
+    }
+
+    @Override
+    public Void visitBlockStmt(Stmt.Block stmt) {
+        List<Token> declarations = declarations(stmt.statements);
+        // a block that declares nothing runs in the enclosing frame
+        if(declarations.isEmpty()) {
+            stmt.frameSize = 0;
+            stmt.cells = NONE;
+            resolveStatements(stmt.statements);
+            return null;
+        }
+
+        beginScope(declarations);
+        resolveStatements(stmt.statements);
+        Scope scope = endScope();
+        stmt.frameSize = scope.locals.size();
+        stmt.cells = scope.cells;
+        return null;
+    }
+
+    @Override
+    public Void visitExpressionStmt(Stmt.Expression stmt) {
+        resolve(stmt.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitFunctionStmt(Stmt.Function stmt) {
+        stmt.global = scopes.isEmpty();
+        Closure closure = resolveFunction(stmt.params, stmt.body);
+        // defined after the body, the function is made before its name is
+        // set so a local function calling itself captures it early
+        stmt.slot = define(stmt.name, stmt);
+        stmt.frameSize = closure.frameSize;
+        stmt.cells = closure.cells;
+        stmt.captureDepths = closure.depths();
+        stmt.captureSlots = closure.slots();
+        return null;
+    }
+
+    @Override
+    public Void visitIfStmt(Stmt.If stmt) {
+        resolve(stmt.condition);
+        resolve(stmt.thenBranch);
+        if(stmt.elseBranch != null) resolve(stmt.elseBranch);
+        return null;
+    }
+
+    @Override
+    public Void visitWhileStmt(Stmt.While stmt) {
+        resolve(stmt.condition);
+        loops++;
+        resolve(stmt.body);
+        loops--;
+        return null;
+    }
+
+    @Override
+    public Void visitReturnStmt(Stmt.Return stmt) {
+        if(stmt.value != null) resolve(stmt.value);
+        // a call returned from a function can replace the function's frame
+        stmt.tail = function > 0 && stmt.value instanceof Expr.Call;
+        return null;
+    }
+
+    @Override
+    public Void visitLetStmt(Stmt.Let stmt) {
+        // the initializer runs before the name exists
+        if(stmt.initializer != null) resolve(stmt.initializer);
+        stmt.global = scopes.isEmpty();
+        stmt.slot = define(stmt.name, stmt);
+        return null;
+    }
+
+    @Override
+    public Void visitBreakStmt(Stmt.Break stmt) {
+        if(loops == 0) error(stmt.keyword, "Can't break outside of a loop.");
+        return null;
+    }
+
+    @Override
+    public Void visitContinueStmt(Stmt.Continue stmt) {
+        if(loops == 0) error(stmt.keyword, "Can't continue outside of a loop.");
+        return null;
+    }
+
+    @Override
+    public Void visitAssignExpr(Expr.Assign expr) {
+        resolve(expr.value);
+        resolveLocal(expr.name, expr);
+        return null;
+    }
+
+    @Override
+    public Void visitBinaryExpr(Expr.Binary expr) {
+        resolve(expr.left);
+        resolve(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitCallExpr(Expr.Call expr) {
+        resolve(expr.callee);
+        for(Expr argument : expr.arguments) {
+            resolve(argument);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitAnonFnExpr(Expr.AnonFn expr) {
+        Closure closure = resolveFunction(expr.params, expr.body);
+        expr.frameSize = closure.frameSize;
+        expr.cells = closure.cells;
+        expr.captureDepths = closure.depths();
+        expr.captureSlots = closure.slots();
+        return null;
+    }
+
+    @Override
+    public Void visitConcatExpr(Expr.Concat expr) {
+        for(Expr operand : expr.operands) {
+            resolve(operand);
+        }
+        return null;
+    }
+
+    @Override
+    public Void visitGroupingExpr(Expr.Grouping expr) {
+        resolve(expr.expression);
+        return null;
+    }
+
+    @Override
+    public Void visitLiteralExpr(Expr.Literal expr) {
+        return null;
+    }
+
+    @Override
+    public Void visitLogicalExpr(Expr.Logical expr) {
+        resolve(expr.left);
+        resolve(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitUnaryExpr(Expr.Unary expr) {
+        resolve(expr.right);
+        return null;
+    }
+
+    @Override
+    public Void visitVariableExpr(Expr.Variable expr) {
+        resolveLocal(expr.name, expr);
+        return null;
+    }
+}
@@ -7,4 +7,11 @@ public class RuntimeError extends RuntimeException {
         super(message);
         this.token = token;
     }
+
+    // builtins don't know where they were called from, so they throw
+    // without a token and the call fills it in
+    RuntimeError at(Token token) {
+        if(this.token != null) return this;
+        return new RuntimeError(token, getMessage());
+    }
 }
@@ -1,57 +1,94 @@
 package me.ghostlyzsh.zunu.zunu;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 
+// Scans UTF-8 source bytes straight from a byte[] or a (possibly memory
+// mapped) ByteBuffer. Offsets are byte offsets, tokens point into the
+// buffer and nothing is decoded except string and float literals.
+// The tokens go into a TokenBuffer rather than one object each.
 public class Scanner {
-    private final String source;
+    private final ByteBuffer source;
+    private final int length;
     private final String name;
-    private final List<Token> tokens = new ArrayList<>();
+    private final TokenBuffer tokens;
+    private final LineIndex lines = new LineIndex();
     private int start = 0;
     private int current = 0;
     private int line = 1;
 
-    private static final Map<String, TokenType> keywords;
+    // character classes of every byte value
+    private static final byte DIGIT = 1;
+    private static final byte ALPHA = 2;
+    private static final byte[] classes = new byte[256];
 
-    // define the keywords
+    // keywords grouped by their first letter
+    private static final byte[][][] keywordBytes = new byte[26][][];
+    private static final TokenType[][] keywordTypes = new TokenType[26][];
+
+    // define the character classes and the keywords
     static {
-        keywords = new HashMap<>();
-        keywords.put("and", TokenType.AND);
-        keywords.put("else", TokenType.ELSE);
-        keywords.put("false", TokenType.FALSE);
-        keywords.put("for", TokenType.FOR);
-        keywords.put("fn", TokenType.FN);
-        keywords.put("if", TokenType.IF);
-        keywords.put("or", TokenType.OR);
-        keywords.put("return", TokenType.RETURN);
-        keywords.put("true", TokenType.TRUE);
-        keywords.put("let", TokenType.LET);
-        keywords.put("while", TokenType.WHILE);
-        keywords.put("break", TokenType.BREAK);
-        keywords.put("continue", TokenType.CONTINUE);
-        keywords.put("null", TokenType.NULL);
-    }
-
-    Scanner(String source, String name) {
+        for(int c = '0'; c <= '9'; c++) classes[c] = DIGIT;
+        for(int c = 'a'; c <= 'z'; c++) classes[c] = ALPHA;
+        for(int c = 'A'; c <= 'Z'; c++) classes[c] = ALPHA;
+        classes['_'] = ALPHA;
+
+        keyword("and", TokenType.AND);
+        keyword("else", TokenType.ELSE);
+        keyword("false", TokenType.FALSE);
+        keyword("for", TokenType.FOR);
+        keyword("fn", TokenType.FN);
+        keyword("if", TokenType.IF);
+        keyword("or", TokenType.OR);
+        keyword("return", TokenType.RETURN);
+        keyword("true", TokenType.TRUE);
+        keyword("let", TokenType.LET);
+        keyword("while", TokenType.WHILE);
+        keyword("break", TokenType.BREAK);
+        keyword("continue", TokenType.CONTINUE);
+        keyword("null", TokenType.NULL);
+    }
+
+    private static void keyword(String text, TokenType type) {
+        int letter = text.charAt(0) - 'a';
+        int count = keywordTypes[letter] == null ? 0 : keywordTypes[letter].length;
+        byte[][] bytes = new byte[count + 1][];
+        TokenType[] types = new TokenType[count + 1];
+        if(count > 0) {
+            System.arraycopy(keywordBytes[letter], 0, bytes, 0, count);
+            System.arraycopy(keywordTypes[letter], 0, types, 0, count);
+        }
+        bytes[count] = text.getBytes(StandardCharsets.US_ASCII);
+        types[count] = type;
+        keywordBytes[letter] = bytes;
+        keywordTypes[letter] = types;
+    }
+
+    Scanner(byte[] source, String name) {
+        this(ByteBuffer.wrap(source), name);
+    }
+
+    // the buffer is read with absolute gets, its position is left alone
+    Scanner(ByteBuffer source, String name) {
         this.source = source;
+        this.length = source.limit();
+        this.tokens = new TokenBuffer(source);
         this.name = name;
     }
 
-    List<Token> scanTokens() {
+    TokenBuffer scanTokens() {
         while(!isAtEnd()) {
             // this is at the beginning of the next lexeme
             start = current;
             scanToken();
         }
 
-        tokens.add(new Token(TokenType.EOF, "", null, line, start));
+        tokens.add(TokenType.EOF, start, 0, line, null);
         return tokens;
     }
 
     private void scanToken() {
-        char c = advance();
+        int c = advance();
         switch (c) {
             // all the single character tokens. it simply adds tokens when it finds characters
             case '(':
@@ -86,7 +123,7 @@ public class Scanner {
                     while (peek() != '\n' && !isAtEnd()) advance();
                 } else if(match('*')) {
                     while((!match('*') || peek() != '/') && !isAtEnd()) {
-                        if(peek() == '\n') line++;
+                        if(peek() == '\n') newline(current);
                         advance();
                     }
                     advance();
@@ -129,7 +166,7 @@ public class Scanner {
             case '\t':
                 break;
             case '\n':
-                line++;
+                newline(current - 1);
                 break;
 
             case '"': string(); break;
@@ -140,21 +177,49 @@ public class Scanner {
                 } else if (isAlpha(c)) {
                     identifier();
                 } else {
+                    // report a multi-byte character once, not once per byte
+                    while((peek() & 0xc0) == 0x80) advance();
                     Zunu.error(line, start, "Unexpected character.", this.name);
                 }
                 break;
         }
     }
 
+    private void newline(int offset) {
+        line++;
+        lines.newline(offset);
+    }
+
+    // where every line starts, complete once scanTokens returns
+    LineIndex lines() {
+        return lines;
+    }
+
     private void identifier() {
         // go forward while the character is a-zA-Z0-9
         while (isAlphaNumeric(peek())) advance();
 
-        String text = source.substring(start, current);
         // see if the type is a keyword, otherwise mark it as an identifier
-        TokenType type = keywords.get(text);
-        if(type == null) type = TokenType.IDENTIFIER;
-        addToken(type);
+        addToken(keyword());
+    }
+
+    private TokenType keyword() {
+        int letter = byteAt(start) - 'a';
+        if(letter < 0 || letter >= 26 || keywordBytes[letter] == null) return TokenType.IDENTIFIER;
+
+        byte[][] candidates = keywordBytes[letter];
+        for(int i = 0; i < candidates.length; i++) {
+            if(lexemeEquals(candidates[i])) return keywordTypes[letter][i];
+        }
+        return TokenType.IDENTIFIER;
+    }
+
+    private boolean lexemeEquals(byte[] text) {
+        if(text.length != current - start) return false;
+        for(int i = 1; i < text.length; i++) {
+            if(byteAt(start + i) != text[i]) return false;
+        }
+        return true;
     }
 
     private void number() {
@@ -172,15 +237,26 @@ public class Scanner {
             while (isDigit(peek())) advance();
         }
         if(isFloat) {
-            addToken(TokenType.FLOAT, Float.parseFloat(source.substring(start, current)));
+            addToken(TokenType.FLOAT, Float.parseFloat(text(start, current)));
         } else {
-            addToken(TokenType.INT, Integer.parseInt(source.substring(start, current)));
+            addToken(TokenType.INT, integer());
         }
     }
 
+    private int integer() {
+        // long enough literals are left to parseInt so they fail the same way
+        if(current - start > 9) return Integer.parseInt(text(start, current));
+
+        int value = 0;
+        for(int i = start; i < current; i++) {
+            value = value * 10 + (byteAt(i) - '0');
+        }
+        return value;
+    }
+
     private boolean match(char expected) {
         if(isAtEnd()) return false;
-        if(source.charAt(current) != expected) return false;
+        if(byteAt(current) != expected) return false;
 
         current++;
         return true;
@@ -189,7 +265,7 @@ public class Scanner {
     private void string() {
         // continue to advance while the character isn't at the end or a "
         while(peek() != '"' && !isAtEnd()) {
-            if(peek() == '\n') line++;
+            if(peek() == '\n') newline(current);
             advance();
         }
 
@@ -201,43 +277,54 @@ public class Scanner {
         advance(); // Closing "
 
         // Trim surrounding quotes
-        String value = source.substring(start + 1, current - 1);
+        String value = text(start + 1, current - 1);
         addToken(TokenType.STRING, value);
     }
 
-    private char peekNext() {
+    private String text(int from, int to) {
+        byte[] bytes = new byte[to - from];
+        for(int i = from; i < to; i++) {
+            bytes[i - from] = source.get(i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private int peekNext() {
         // two character lookahead
-        if(current + 1 >= source.length()) return '\0';
-        return source.charAt(current + 1);
+        if(current + 1 >= length) return '\0';
+        return byteAt(current + 1);
     }
 
-    private boolean isAlpha(char c) {
+    private boolean isAlpha(int c) {
         // a-zA-Z_
-        return  (c >= 'a' && c <= 'z') ||
-                (c >= 'A' && c <= 'Z') ||
-                 c == '_';
+        return classes[c] == ALPHA;
     }
 
-    private boolean isAlphaNumeric(char c) {
-        return isAlpha(c) || isDigit(c);
+    private boolean isAlphaNumeric(int c) {
+        return classes[c] != 0;
     }
 
-    private char peek() {
+    private int peek() {
         // look at the current character without advancing
         if (isAtEnd()) return '\0';
-        return source.charAt(current);
+        return byteAt(current);
     }
 
-    private boolean isDigit(char c) {
-        return c >= '0' && c <= '9';
+    private boolean isDigit(int c) {
+        return classes[c] == DIGIT;
     }
 
     private boolean isAtEnd() {
-        return current >= source.length();
+        return current >= length;
+    }
+
+    private int advance() {
+        return byteAt(current++);
     }
 
-    private char advance() {
-        return source.charAt(current++);
+    // bytes as 0-255 so they index the class table
+    private int byteAt(int index) {
+        return source.get(index) & 0xff;
     }
 
     private void addToken(TokenType type) {
@@ -245,8 +332,7 @@ public class Scanner {
     }
 
     private void addToken(TokenType type, Object literal) {
-        // generate a token and add it to the token array
-        String text = source.substring(start, current);
-        tokens.add(new Token(type, text, literal, line, start));
+        // record where the lexeme is in the source
+        tokens.add(type, start, current - start, line, literal);
     }
 }
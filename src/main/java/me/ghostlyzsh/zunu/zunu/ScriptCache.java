@@ -0,0 +1,515 @@
+package me.ghostlyzsh.zunu.zunu;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Parsed scripts saved next to their source as <script>.znc, so a server
+// restart doesn't scan and parse files that haven't changed. A cache file
+// is only used when the SHA-256 of the source, the format version and the
+// optimizer setting all match, anything else is a miss and the script is
+// parsed again.
+final class ScriptCache {
+    private ScriptCache() {}
+
+    // bump when the layout below or TokenType changes
+    static final int FORMAT_VERSION = 4;
+    private static final int MAGIC = 0x5a4e4300; // "ZNC\0"
+
+    private static final int BLOCK = 0;
+    private static final int EXPRESSION = 1;
+    private static final int FUNCTION = 2;
+    private static final int IF = 3;
+    private static final int WHILE = 4;
+    private static final int RETURN = 5;
+    private static final int LET = 6;
+    private static final int BREAK = 7;
+    private static final int CONTINUE = 8;
+
+    private static final int ASSIGN = 0;
+    private static final int BINARY = 1;
+    private static final int CALL = 2;
+    private static final int ANON_FN = 3;
+    private static final int GROUPING = 4;
+    private static final int LITERAL = 5;
+    private static final int LOGICAL = 6;
+    private static final int UNARY = 7;
+    private static final int VARIABLE = 8;
+    private static final int CONCAT = 9;
+
+    private static final int NULL = 0;
+    private static final int TRUE = 1;
+    private static final int FALSE = 2;
+    private static final int INT = 3;
+    private static final int FLOAT = 4;
+    private static final int DOUBLE = 5;
+    private static final int STRING = 6;
+
+    static Path path(String name) {
+        return Paths.get("plugins/Zunu/" + name + "c");
+    }
+
+    // returns null on a miss or an unreadable cache file
+    static List<Stmt> load(Path path, byte[] source, boolean optimized) {
+        if(!Files.exists(path)) return null;
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(Files.readAllBytes(path)));
+            if(in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) return null;
+            byte[] hash = new byte[32];
+            in.readFully(hash);
+            if(!Arrays.equals(hash, hash(source)) || in.readBoolean() != optimized) return null;
+            return new Reader(in).statements();
+        } catch(IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    static void save(Path path, byte[] source, boolean optimized, List<Stmt> statements) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(MAGIC);
+        out.writeInt(FORMAT_VERSION);
+        out.write(hash(source));
+        out.writeBoolean(optimized);
+        try {
+            new Writer(out).statements(statements);
+        } catch(UncheckedIOException e) {
+            throw e.getCause();
+        }
+
+        // write to the side and move it over so a crash can't leave half a file
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        Files.write(temp, bytes.toByteArray());
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private static byte[] hash(byte[] source) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(source);
+        } catch(NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static class Writer implements Expr.Visitor<Void>, Stmt.Visitor<Void> {
+        private final DataOutputStream out;
+
+        Writer(DataOutputStream out) {
+            this.out = out;
+        }
+
+        void statements(List<Stmt> statements) {
+            integer(statements.size());
+            for(Stmt statement : statements) {
+                statement.accept(this);
+            }
+        }
+
+        private void expression(Expr expr) {
+            expr.accept(this);
+        }
+
+        private void optional(Stmt stmt) {
+            bool(stmt != null);
+            if(stmt != null) stmt.accept(this);
+        }
+
+        private void optional(Expr expr) {
+            bool(expr != null);
+            if(expr != null) expr.accept(this);
+        }
+
+        private void tag(int tag) {
+            try {
+                out.writeByte(tag);
+            } catch(IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private void integer(int value) {
+            try {
+                out.writeInt(value);
+            } catch(IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private void bool(boolean value) {
+            try {
+                out.writeBoolean(value);
+            } catch(IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        // writeUTF can't take strings over 64K
+        private void string(String value) {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            integer(bytes.length);
+            try {
+                out.write(bytes);
+            } catch(IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        private void value(Object value) {
+            if(value == null) {
+                tag(NULL);
+            } else if(value instanceof Boolean) {
+                tag((Boolean) value ? TRUE : FALSE);
+            } else if(value instanceof Integer) {
+                tag(INT);
+                integer((Integer) value);
+            } else if(value instanceof Float) {
+                tag(FLOAT);
+                integer(Float.floatToRawIntBits((Float) value));
+            } else if(value instanceof Double) {
+                tag(DOUBLE);
+                try {
+                    out.writeLong(Double.doubleToRawLongBits((Double) value));
+                } catch(IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            } else if(value instanceof String) {
+                tag(STRING);
+                string((String) value);
+            } else {
+                throw new IllegalArgumentException("Can't cache a " + value.getClass().getSimpleName());
+            }
+        }
+
+        private void token(Token token) {
+            tag(token.type.ordinal());
+            string(token.lexeme());
+            value(token.literal);
+            integer(token.line);
+            integer(token.start);
+        }
+
+        private void tokens(List<Token> tokens) {
+            integer(tokens.size());
+            for(Token token : tokens) {
+                token(token);
+            }
+        }
+
+        @Override
+        public Void visitBlockStmt(Stmt.Block stmt) {
+            tag(BLOCK);
+            statements(stmt.statements);
+            return null;
+        }
+
+        @Override
+        public Void visitExpressionStmt(Stmt.Expression stmt) {
+            tag(EXPRESSION);
+            expression(stmt.expression);
+            return null;
+        }
+
+        @Override
+        public Void visitFunctionStmt(Stmt.Function stmt) {
+            tag(FUNCTION);
+            token(stmt.name);
+            tokens(stmt.params);
+            statements(stmt.body);
+            return null;
+        }
+
+        @Override
+        public Void visitIfStmt(Stmt.If stmt) {
+            tag(IF);
+            expression(stmt.condition);
+            stmt.thenBranch.accept(this);
+            optional(stmt.elseBranch);
+            return null;
+        }
+
+        @Override
+        public Void visitWhileStmt(Stmt.While stmt) {
+            tag(WHILE);
+            token(stmt.keyword);
+            expression(stmt.condition);
+            stmt.body.accept(this);
+            return null;
+        }
+
+        @Override
+        public Void visitReturnStmt(Stmt.Return stmt) {
+            tag(RETURN);
+            token(stmt.keyword);
+            optional(stmt.value);
+            return null;
+        }
+
+        @Override
+        public Void visitLetStmt(Stmt.Let stmt) {
+            tag(LET);
+            token(stmt.name);
+            optional(stmt.initializer);
+            return null;
+        }
+
+        @Override
+        public Void visitBreakStmt(Stmt.Break stmt) {
+            tag(BREAK);
+            token(stmt.keyword);
+            return null;
+        }
+
+        @Override
+        public Void visitContinueStmt(Stmt.Continue stmt) {
+            tag(CONTINUE);
+            token(stmt.keyword);
+            return null;
+        }
+
+        @Override
+        public Void visitAssignExpr(Expr.Assign expr) {
+            tag(ASSIGN);
+            token(expr.name);
+            expression(expr.value);
+            return null;
+        }
+
+        @Override
+        public Void visitBinaryExpr(Expr.Binary expr) {
+            tag(BINARY);
+            expression(expr.left);
+            token(expr.operator);
+            expression(expr.right);
+            return null;
+        }
+
+        @Override
+        public Void visitCallExpr(Expr.Call expr) {
+            tag(CALL);
+            expression(expr.callee);
+            token(expr.paren);
+            integer(expr.arguments.size());
+            for(Expr argument : expr.arguments) {
+                expression(argument);
+            }
+            return null;
+        }
+
+        @Override
+        public Void visitAnonFnExpr(Expr.AnonFn expr) {
+            tag(ANON_FN);
+            tokens(expr.params);
+            statements(expr.body);
+            return null;
+        }
+
+        @Override
+        public Void visitConcatExpr(Expr.Concat expr) {
+            tag(CONCAT);
+            integer(expr.operands.size());
+            for(Expr operand : expr.operands) {
+                expression(operand);
+            }
+            tokens(expr.operators);
+            return null;
+        }
+
+        @Override
+        public Void visitGroupingExpr(Expr.Grouping expr) {
+            tag(GROUPING);
+            expression(expr.expression);
+            return null;
+        }
+
+        @Override
+        public Void visitLiteralExpr(Expr.Literal expr) {
+            tag(LITERAL);
+            value(expr.value);
+            return null;
+        }
+
+        @Override
+        public Void visitLogicalExpr(Expr.Logical expr) {
+            tag(LOGICAL);
+            expression(expr.left);
+            token(expr.operator);
+            expression(expr.right);
+            return null;
+        }
+
+        @Override
+        public Void visitUnaryExpr(Expr.Unary expr) {
+            tag(UNARY);
+            token(expr.operator);
+            expression(expr.right);
+            return null;
+        }
+
+        @Override
+        public Void visitVariableExpr(Expr.Variable expr) {
+            tag(VARIABLE);
+            token(expr.name);
+            return null;
+        }
+    }
+
+    private static class Reader {
+        private static final TokenType[] TYPES = TokenType.values();
+
+        private final DataInputStream in;
+
+        Reader(DataInputStream in) {
+            this.in = in;
+        }
+
+        List<Stmt> statements() throws IOException {
+            int count = in.readInt();
+            List<Stmt> statements = new ArrayList<>(count);
+            for(int i = 0; i < count; i++) {
+                statements.add(statement());
+            }
+            return statements;
+        }
+
+        private Stmt statement() throws IOException {
+            int tag = in.readByte();
+            switch(tag) {
+                case BLOCK:
+                    return new Stmt.Block(statements());
+                case EXPRESSION:
+                    return new Stmt.Expression(expression());
+                case FUNCTION: {
+                    Token name = token();
+                    List<Token> params = tokens();
+                    return new Stmt.Function(name, params, statements());
+                }
+                case IF: {
+                    Expr condition = expression();
+                    Stmt thenBranch = statement();
+                    return new Stmt.If(condition, thenBranch, in.readBoolean() ? statement() : null);
+                }
+                case WHILE: {
+                    Token keyword = token();
+                    Expr condition = expression();
+                    return new Stmt.While(keyword, condition, statement());
+                }
+                case RETURN: {
+                    Token keyword = token();
+                    return new Stmt.Return(keyword, in.readBoolean() ? expression() : null);
+                }
+                case LET: {
+                    Token name = token();
+                    return new Stmt.Let(name, in.readBoolean() ? expression() : null);
+                }
+                case BREAK:
+                    return new Stmt.Break(token());
+                case CONTINUE:
+                    return new Stmt.Continue(token());
+            }
+            throw new IOException("Unknown statement tag " + tag);
+        }
+
+        private Expr expression() throws IOException {
+            int tag = in.readByte();
+            switch(tag) {
+                case ASSIGN: {
+                    Token name = token();
+                    return new Expr.Assign(name, expression());
+                }
+                case BINARY: {
+                    Expr left = expression();
+                    Token operator = token();
+                    return new Expr.Binary(left, operator, expression());
+                }
+                case CALL: {
+                    Expr callee = expression();
+                    Token paren = token();
+                    int count = in.readInt();
+                    List<Expr> arguments = new ArrayList<>(count);
+                    for(int i = 0; i < count; i++) {
+                        arguments.add(expression());
+                    }
+                    return new Expr.Call(callee, paren, arguments);
+                }
+                case ANON_FN: {
+                    List<Token> params = tokens();
+                    return new Expr.AnonFn(params, statements());
+                }
+                case CONCAT: {
+                    int count = in.readInt();
+                    List<Expr> operands = new ArrayList<>(count);
+                    for(int i = 0; i < count; i++) {
+                        operands.add(expression());
+                    }
+                    return new Expr.Concat(operands, tokens());
+                }
+                case GROUPING:
+                    return new Expr.Grouping(expression());
+                case LITERAL:
+                    return new Expr.Literal(value());
+                case LOGICAL: {
+                    Expr left = expression();
+                    Token operator = token();
+                    return new Expr.Logical(left, operator, expression());
+                }
+                case UNARY: {
+                    Token operator = token();
+                    return new Expr.Unary(operator, expression());
+                }
+                case VARIABLE:
+                    return new Expr.Variable(token());
+            }
+            throw new IOException("Unknown expression tag " + tag);
+        }
+
+        private String string() throws IOException {
+            byte[] bytes = new byte[in.readInt()];
+            in.readFully(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        private Object value() throws IOException {
+            int tag = in.readByte();
+            switch(tag) {
+                case NULL: return null;
+                case TRUE: return true;
+                case FALSE: return false;
+                case INT: return in.readInt();
+                case FLOAT: return Float.intBitsToFloat(in.readInt());
+                case DOUBLE: return Double.longBitsToDouble(in.readLong());
+                case STRING: return string();
+            }
+            throw new IOException("Unknown value tag " + tag);
+        }
+
+        private Token token() throws IOException {
+            TokenType type = TYPES[in.readByte() & 0xff];
+            String lexeme = string();
+            Object literal = value();
+            int line = in.readInt();
+            return new Token(type, lexeme, literal, line, in.readInt());
+        }
+
+        private List<Token> tokens() throws IOException {
+            int count = in.readInt();
+            List<Token> tokens = new ArrayList<>(count);
+            for(int i = 0; i < count; i++) {
+                tokens.add(token());
+            }
+            return tokens;
+        }
+    }
+}
@@ -0,0 +1,13 @@
+package me.ghostlyzsh.zunu.zunu;
+
+import java.util.logging.Logger;
+
+// Where script output and script errors are logged. The plugin points it at
+// the server's logger when it enables; until then, and anywhere scripts run
+// without a server like the benchmarks, it is a plain java.util.logging
+// Logger.
+final class ScriptLog {
+    static volatile Logger logger = Logger.getLogger("Zunu");
+
+    private ScriptLog() {}
+}
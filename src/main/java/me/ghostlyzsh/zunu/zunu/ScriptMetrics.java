@@ -0,0 +1,108 @@
+package me.ghostlyzsh.zunu.zunu;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+// Counters for one script, kept across reloads: its runs, the runtime
+// errors it reported, the frames it allocated and every function it called.
+// Each is registered as an MBean under me.ghostlyzsh.zunu. Everything is
+// counted with LongAdders so scripts on several threads don't contend.
+final class ScriptMetrics implements ScriptMetricsMBean {
+    private static final String DOMAIN = "me.ghostlyzsh.zunu";
+
+    final String name;
+    private final LongAdder runs = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    final LongAdder frames = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final Histogram times = new Histogram();
+    private final Map<String, FunctionMetrics> functions = new ConcurrentHashMap<>();
+
+    ScriptMetrics(String name) {
+        this.name = name;
+        register(this, "type=Script,name=" + ObjectName.quote(name));
+    }
+
+    // a run of the script's top level
+    void run(long nanos) {
+        runs.increment();
+        totalNanos.add(nanos);
+        times.record(nanos);
+    }
+
+    void error() {
+        errors.increment();
+    }
+
+    FunctionMetrics function(String name) {
+        return functions.computeIfAbsent(name, function -> {
+            FunctionMetrics metrics = new FunctionMetrics(function);
+            register(metrics, "type=Function,script=" + ObjectName.quote(this.name) +
+                    ",name=" + ObjectName.quote(function));
+            return metrics;
+        });
+    }
+
+    List<FunctionMetrics> functions() {
+        return new ArrayList<>(functions.values());
+    }
+
+    @Override
+    public long getRuns() {
+        return runs.sum();
+    }
+
+    @Override
+    public long getErrors() {
+        return errors.sum();
+    }
+
+    @Override
+    public long getFrames() {
+        return frames.sum();
+    }
+
+    @Override
+    public double getTotalMillis() {
+        return totalNanos.sum() / 1e6;
+    }
+
+    @Override
+    public double getAverageMillis() {
+        long count = runs.sum();
+        return count == 0 ? 0 : totalNanos.sum() / 1e6 / count;
+    }
+
+    @Override
+    public double getP99Millis() {
+        return times.percentile(0.99) / 1e6;
+    }
+
+    private static void register(Object mbean, String properties) {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(mbean, new ObjectName(DOMAIN + ":" + properties));
+        } catch(JMException e) {
+            ScriptLog.logger.log(Level.WARNING, "Could not register metrics " + properties, e);
+        }
+    }
+
+    // removes every MBean this plugin registered, when it disables
+    static void unregisterAll() {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            for(ObjectName name : server.queryNames(new ObjectName(DOMAIN + ":*"), null)) {
+                server.unregisterMBean(name);
+            }
+        } catch(JMException e) {
+            ScriptLog.logger.log(Level.WARNING, "Could not unregister metrics", e);
+        }
+    }
+}
@@ -0,0 +1,10 @@
+package me.ghostlyzsh.zunu.zunu;
+
+public interface ScriptMetricsMBean {
+    long getRuns();
+    long getErrors();
+    long getFrames();
+    double getTotalMillis();
+    double getAverageMillis();
+    double getP99Millis();
+}
@@ -0,0 +1,139 @@
+package me.ghostlyzsh.zunu.zunu;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+// Watches the scripts directory and reloads a script when its file changes.
+// Editors often write a file several times in a row, so a script is only
+// reloaded once no event for it has come in for the debounce time. Reading
+// and parsing happen on the watcher thread, only resolving and running the
+// new top level happen on the server thread.
+class ScriptWatcher implements Runnable {
+    private final Zunu plugin;
+    private final Path directory;
+    private final long debounceNanos;
+    private final WatchService watcher;
+    private final Thread thread;
+
+    // changed scripts waiting out the debounce, with the time of the first
+    // and of the latest change
+    private final Map<String, long[]> pending = new HashMap<>();
+
+    ScriptWatcher(Zunu plugin, Path directory, long debounceMillis) throws IOException {
+        this.plugin = plugin;
+        this.directory = directory;
+        this.debounceNanos = TimeUnit.MILLISECONDS.toNanos(debounceMillis);
+        this.watcher = FileSystems.getDefault().newWatchService();
+        directory.register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+        this.thread = new Thread(this, "Zunu Script Watcher");
+        this.thread.setDaemon(true);
+    }
+
+    void start() {
+        thread.start();
+    }
+
+    void stop() {
+        try {
+            watcher.close();
+        } catch(IOException e) {
+            plugin.getLogger().log(Level.WARNING, "Could not stop the script watcher", e);
+        }
+    }
+
+    @Override
+    public void run() {
+        try {
+            while(true) {
+                WatchKey key = pending.isEmpty() ? watcher.take()
+                        : watcher.poll(nextDeadline() - System.nanoTime(), TimeUnit.NANOSECONDS);
+                if(key != null) {
+                    collect(key);
+                    if(!key.reset()) return;
+                }
+                reloadSettled();
+            }
+        } catch(ClosedWatchServiceException | InterruptedException e) {
+            // the plugin is disabling
+        }
+    }
+
+    private void collect(WatchKey key) {
+        long now = System.nanoTime();
+        for(WatchEvent<?> event : key.pollEvents()) {
+            if(event.kind() == StandardWatchEventKinds.OVERFLOW) continue;
+            String name = event.context().toString();
+            if(!name.endsWith(".zn")) continue;
+
+            long[] times = pending.get(name);
+            if(times == null) {
+                pending.put(name, new long[] { now, now });
+            } else {
+                times[1] = now;
+            }
+        }
+    }
+
+    private long nextDeadline() {
+        long deadline = Long.MAX_VALUE;
+        for(long[] times : pending.values()) {
+            deadline = Math.min(deadline, times[1] + debounceNanos);
+        }
+        return deadline;
+    }
+
+    private void reloadSettled() {
+        long now = System.nanoTime();
+        Iterator<Map.Entry<String, long[]>> entries = pending.entrySet().iterator();
+        while(entries.hasNext()) {
+            Map.Entry<String, long[]> entry = entries.next();
+            if(now - entry.getValue()[1] < debounceNanos) continue;
+            entries.remove();
+            reload(entry.getKey(), entry.getValue()[0]);
+        }
+    }
+
+    private void reload(String name, long changed) {
+        byte[] bytes;
+        try {
+            bytes = Files.readAllBytes(directory.resolve(name));
+        } catch(NoSuchFileException e) {
+            plugin.getServer().getScheduler().runTask(plugin, () -> Zunu.unload(name));
+            return;
+        } catch(IOException e) {
+            plugin.getLogger().log(Level.WARNING, "Could not read " + name, e);
+            return;
+        }
+
+        // saving without changes still fires an event
+        if(Arrays.equals(bytes, Zunu.sources.get(name))) return;
+
+        long start = System.nanoTime();
+        List<Stmt> statements = Zunu.reload(bytes, name);
+        if(statements == null) return;
+        long parsed = System.nanoTime();
+
+        plugin.getServer().getScheduler().runTask(plugin, () -> {
+            Zunu.runFile(statements, name, plugin.engine(name));
+            long end = System.nanoTime();
+            plugin.getLogger().info(String.format("Reloaded %s %.2f ms after it changed (%.2f ms parsing)",
+                    name, (end - changed) / 1e6, (parsed - start) / 1e6));
+        });
+    }
+}
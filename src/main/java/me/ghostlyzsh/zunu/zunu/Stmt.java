@@ -21,6 +21,9 @@ abstract class Stmt {
 
     final List<Stmt> statements;
 
+    int frameSize;
+    int[] cells;
+
     @Override
     <R> R accept(Visitor<R> visitor) {
       return visitor.visitBlockStmt(this);
@@ -49,6 +52,18 @@ abstract class Stmt {
     final List<Token> params;
     final List<Stmt> body;
 
+    boolean global;
+    int slot;
+    boolean cell;
+    int frameSize;
+    int[] cells;
+    int[] captureDepths;
+    int[] captureSlots;
+    ZunuFunction instance;
+    int calls;
+    CompiledFunction compiled;
+    FunctionMetrics metrics;
+
     @Override
     <R> R accept(Visitor<R> visitor) {
       return visitor.visitFunctionStmt(this);
@@ -71,11 +86,13 @@ abstract class Stmt {
     }
   }
   static class While extends Stmt {
-    While(Expr condition, Stmt body) {
+    While(Token keyword, Expr condition, Stmt body) {
+      this.keyword = keyword;
       this.condition = condition;
       this.body = body;
     }
 
+    final Token keyword;
     final Expr condition;
     final Stmt body;
 
@@ -93,6 +110,8 @@ abstract class Stmt {
     final Token keyword;
     final Expr value;
 
+    boolean tail;
+
     @Override
     <R> R accept(Visitor<R> visitor) {
       return visitor.visitReturnStmt(this);
@@ -107,24 +126,34 @@ abstract class Stmt {
     final Token name;
     final Expr initializer;
 
+    boolean global;
+    int slot;
+    boolean cell;
+
     @Override
     <R> R accept(Visitor<R> visitor) {
       return visitor.visitLetStmt(this);
     }
   }
   static class Break extends Stmt {
-    Break() {
+    Break(Token keyword) {
+      this.keyword = keyword;
     }
 
+    final Token keyword;
+
     @Override
     <R> R accept(Visitor<R> visitor) {
       return visitor.visitBreakStmt(this);
     }
   }
   static class Continue extends Stmt {
-    Continue() {
+    Continue(Token keyword) {
+      this.keyword = keyword;
     }
 
+    final Token keyword;
+
     @Override
     <R> R accept(Visitor<R> visitor) {
       return visitor.visitContinueStmt(this);
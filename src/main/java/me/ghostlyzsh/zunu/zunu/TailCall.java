@@ -0,0 +1,15 @@
+package me.ghostlyzsh.zunu.zunu;
+
+// What a function body returns instead of a value when it ends with
+// `return f(...)`: the function to run next and its frame, already filled
+// with the arguments. FrameCallable.invoke runs it in a loop, so a chain
+// of tail calls takes no more Java stack than a single call.
+final class TailCall {
+    final FrameCallable function;
+    final Environment frame;
+
+    TailCall(FrameCallable function, Environment frame) {
+        this.function = function;
+        this.frame = frame;
+    }
+}
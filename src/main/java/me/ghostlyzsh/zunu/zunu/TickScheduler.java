@@ -0,0 +1,68 @@
+package me.ghostlyzsh.zunu.zunu;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Runs scripts a slice at a time so a long loop doesn't hold up the server
+// tick. Runs once per tick on the server thread; every unfinished script
+// gets an equal share of the tick's steps. A step is a loop back-edge or a
+// call, and the tick also stops handing out slices once its time is up.
+// The first script to run moves along every tick so no script always
+// goes first.
+class TickScheduler implements Runnable {
+    private static class Task {
+        final String name;
+        final VM vm;
+
+        Task(String name, VM vm) {
+            this.name = name;
+            this.vm = vm;
+        }
+    }
+
+    private final int stepsPerTick;
+    private final long nanosPerTick;
+    private final List<Task> tasks = new ArrayList<>();
+    private int next = 0;
+
+    TickScheduler(int stepsPerTick, long millisPerTick) {
+        this.stepsPerTick = stepsPerTick;
+        this.nanosPerTick = millisPerTick * 1_000_000L;
+    }
+
+    // a reloaded script replaces the one still running under its name
+    void submit(String name, VM vm, Chunk script) {
+        vm.start(script);
+        cancel(name);
+        tasks.add(new Task(name, vm));
+    }
+
+    void cancel(String name) {
+        tasks.removeIf(task -> task.name.equals(name));
+    }
+
+    @Override
+    public void run() {
+        if(tasks.isEmpty()) return;
+
+        long deadline = System.nanoTime() + nanosPerTick;
+        int share = Math.max(1, stepsPerTick / tasks.size());
+        List<Task> order = new ArrayList<>(tasks.size());
+        for(int i = 0; i < tasks.size(); i++) {
+            order.add(tasks.get((next + i) % tasks.size()));
+        }
+        next = (next + 1) % tasks.size();
+
+        for(Task task : order) {
+            if(System.nanoTime() >= deadline) break;
+            boolean finished;
+            try {
+                finished = task.vm.resume(share);
+            } catch(RuntimeError e) {
+                Zunu.runtimeError(e, task.name);
+                finished = true;
+            }
+            if(finished) tasks.remove(task);
+        }
+    }
+}
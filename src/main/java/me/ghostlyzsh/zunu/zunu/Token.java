@@ -1,11 +1,19 @@
 package me.ghostlyzsh.zunu.zunu;
 
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
 public class Token {
     final TokenType type;
-    final String lexeme;
     final Object literal;
     final int line;
+    // byte offset of the lexeme in the UTF-8 source
     final int start;
+    final int length;
+    // tokens from the Scanner point into the source and only decode their
+    // lexeme when something asks for it
+    private final ByteBuffer source;
+    private String lexeme;
 
     Token(TokenType type, String lexeme, Object literal, int line, int start) {
         this.type = type;
@@ -13,9 +21,33 @@ public class Token {
         this.literal = literal;
         this.line = line;
         this.start = start;
+        this.length = lexeme.length();
+        this.source = null;
+    }
+
+    Token(TokenType type, ByteBuffer source, int start, int length, Object literal, int line) {
+        this.type = type;
+        this.source = source;
+        this.start = start;
+        this.length = length;
+        this.literal = literal;
+        this.line = line;
+    }
+
+    String lexeme() {
+        if(lexeme == null) {
+            byte[] bytes = new byte[length];
+            for(int i = 0; i < length; i++) {
+                bytes[i] = source.get(start + i);
+            }
+            String text = new String(bytes, StandardCharsets.UTF_8);
+            // names are looked up over and over, keep one copy of each
+            lexeme = type == TokenType.IDENTIFIER ? text.intern() : text;
+        }
+        return lexeme;
     }
 
     public String toString() {
-        return type + " " + lexeme + " " + literal;
+        return type + " " + lexeme() + " " + literal;
     }
 }
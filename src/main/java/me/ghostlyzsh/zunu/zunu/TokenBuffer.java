@@ -0,0 +1,71 @@
+package me.ghostlyzsh.zunu.zunu;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+// The Scanner's output as parallel arrays instead of a list of Tokens. The
+// Parser reads types straight from the arrays and only makes a Token for
+// the few lexemes the AST keeps, like names and operators.
+final class TokenBuffer {
+    private static final TokenType[] TYPES = TokenType.values();
+
+    final ByteBuffer source;
+    private int[] types = new int[256];
+    private int[] starts = new int[256];
+    private int[] lengths = new int[256];
+    private int[] lines = new int[256];
+    private int count = 0;
+
+    // literals of INT, FLOAT and STRING tokens, by ascending token index
+    private int[] literalTokens = new int[32];
+    private Object[] literals = new Object[32];
+    private int literalCount = 0;
+
+    TokenBuffer(ByteBuffer source) {
+        this.source = source;
+    }
+
+    void add(TokenType type, int start, int length, int line, Object literal) {
+        if(count == types.length) {
+            types = Arrays.copyOf(types, count * 2);
+            starts = Arrays.copyOf(starts, count * 2);
+            lengths = Arrays.copyOf(lengths, count * 2);
+            lines = Arrays.copyOf(lines, count * 2);
+        }
+        types[count] = type.ordinal();
+        starts[count] = start;
+        lengths[count] = length;
+        lines[count] = line;
+
+        if(literal != null) {
+            if(literalCount == literals.length) {
+                literalTokens = Arrays.copyOf(literalTokens, literalCount * 2);
+                literals = Arrays.copyOf(literals, literalCount * 2);
+            }
+            literalTokens[literalCount] = count;
+            literals[literalCount++] = literal;
+        }
+        count++;
+    }
+
+    int size() {
+        return count;
+    }
+
+    TokenType type(int index) {
+        return TYPES[types[index]];
+    }
+
+    int line(int index) {
+        return lines[index];
+    }
+
+    Object literal(int index) {
+        int found = Arrays.binarySearch(literalTokens, 0, literalCount, index);
+        return found < 0 ? null : literals[found];
+    }
+
+    Token token(int index) {
+        return new Token(type(index), source, starts[index], lengths[index], literal(index), lines[index]);
+    }
+}
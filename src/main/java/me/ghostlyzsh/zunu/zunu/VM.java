@@ -0,0 +1,522 @@
+package me.ghostlyzsh.zunu.zunu;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Runs Chunks made by the BytecodeCompiler. Calls between VmFunctions push
+// a CallFrame instead of recursing on the Java stack, which also lets a
+// scheduled script stop anywhere and pick up again on a later tick.
+public class VM {
+    // what run returns when a scheduled script used up its steps
+    private static final Object SUSPENDED = new Object();
+
+    private static class CallFrame {
+        Chunk chunk;
+        int pc;
+        Environment environment;
+        // null for the top level or with metrics off
+        FunctionMetrics metrics;
+        long start;
+    }
+
+    private final Interpreter interpreter;
+    private Object[] stack = new Object[256];
+    private int sp = 0;
+    private CallFrame[] frames = new CallFrame[64];
+    private int frameCount = 0;
+
+    // set while a scheduled script runs, steps are taken on loop
+    // back-edges and calls
+    private boolean scheduled = false;
+    private int steps = 0;
+    // time a scheduled script has run for over all its slices
+    private long runNanos = 0;
+
+    VM(Interpreter interpreter) {
+        this.interpreter = interpreter;
+        for(int i = 0; i < frames.length; i++) {
+            frames[i] = new CallFrame();
+        }
+    }
+
+    void interpret(Chunk script, String name) {
+        interpreter.watchdog.reset(0);
+        interpreter.running = true;
+        long start = System.nanoTime();
+        try {
+            execute(script, null);
+        } catch (RuntimeError e) {
+            Zunu.runtimeError(e, name);
+        } finally {
+            interpreter.running = false;
+            if(interpreter.metrics != null) interpreter.metrics.run(System.nanoTime() - start);
+        }
+    }
+
+    // sets up a script to be run a slice at a time with resume, the
+    // watchdog's limits cover all of its slices together
+    void start(Chunk script) {
+        interpreter.watchdog.reset(0);
+        runNanos = 0;
+        frameCount = 0;
+        sp = 0;
+        ensureStack(0, script);
+        pushFrame(script, null);
+    }
+
+    // runs a started script until it finishes, returning true, or until it
+    // has taken the given number of steps
+    boolean resume(int steps) {
+        this.steps = steps;
+        scheduled = true;
+        interpreter.running = true;
+        long start = System.nanoTime();
+        boolean finished = true;
+        try {
+            finished = run(0) != SUSPENDED;
+            return finished;
+        } catch(RuntimeError e) {
+            failed(0);
+            frameCount = 0;
+            sp = 0;
+            throw e;
+        } finally {
+            scheduled = false;
+            interpreter.running = false;
+            runNanos += System.nanoTime() - start;
+            if(finished && interpreter.metrics != null) interpreter.metrics.run(runNanos);
+        }
+    }
+
+    Object call(VmFunction function, List<Object> arguments) {
+        Environment environment = new Environment(function.closure, function.chunk.frameSize);
+        for(int i = 0; i < arguments.size(); i++) {
+            environment.define(i, arguments.get(i));
+        }
+        return execute(function.chunk, environment);
+    }
+
+    private Object execute(Chunk chunk, Environment environment) {
+        int base = frameCount;
+        int previousSp = sp;
+        try {
+            ensureStack(sp, chunk);
+            pushFrame(chunk, environment);
+            return run(base);
+        } catch(RuntimeError e) {
+            failed(base);
+            throw e;
+        } finally {
+            // a runtime error leaves the frames above the caller behind
+            frameCount = base;
+            sp = previousSp;
+        }
+    }
+
+    private CallFrame pushFrame(Chunk chunk, Environment environment) {
+        if(frameCount == frames.length) {
+            frames = Arrays.copyOf(frames, frameCount * 2);
+            for(int i = frameCount; i < frames.length; i++) {
+                frames[i] = new CallFrame();
+            }
+        }
+        CallFrame frame = frames[frameCount++];
+        frame.chunk = chunk;
+        frame.pc = 0;
+        frame.environment = environment;
+        frame.metrics = null;
+        // only functions have an environment of their own
+        if(environment != null) startMetrics(frame, chunk);
+        return frame;
+    }
+
+    private void startMetrics(CallFrame frame, Chunk chunk) {
+        ScriptMetrics metrics = interpreter.metrics;
+        if(metrics == null) return;
+        if(chunk.metrics == null) {
+            chunk.metrics = metrics.function(chunk.name == null ? "<anon fn>" : chunk.name);
+        }
+        frame.metrics = chunk.metrics;
+        frame.start = System.nanoTime();
+    }
+
+    // counts the calls a runtime error ended, from the frame at index base up
+    private void failed(int base) {
+        long now = System.nanoTime();
+        for(int i = base; i < frameCount; i++) {
+            FunctionMetrics metrics = frames[i].metrics;
+            if(metrics == null) continue;
+            metrics.error();
+            metrics.record(now - frames[i].start);
+        }
+    }
+
+    private void ensureStack(int sp, Chunk chunk) {
+        if(sp + chunk.maxStack + 1 >= stack.length) {
+            stack = Arrays.copyOf(stack, Math.max(stack.length * 2, sp + chunk.maxStack + 1));
+        }
+    }
+
+    // calls anything that isn't one of this VM's functions without
+    // collecting the arguments into a list when it can
+    private Object callOther(ZunuCallable function, Object[] stack, int first, int argCount) {
+        if(function instanceof FrameCallable) {
+            FrameCallable callable = (FrameCallable) function;
+            Environment frame = callable.newFrame();
+            interpreter.allocateFrame(frame.slots.length);
+            System.arraycopy(stack, first, frame.slots, 0, argCount);
+            return callable.invoke(interpreter, frame);
+        }
+
+        switch(argCount) {
+            case 0:
+                return function.call0(interpreter);
+            case 1:
+                return function.call1(interpreter, stack[first]);
+            case 2:
+                return function.call2(interpreter, stack[first], stack[first + 1]);
+            case 3:
+                return function.call3(interpreter, stack[first], stack[first + 1], stack[first + 2]);
+        }
+
+        List<Object> arguments = new ArrayList<>(argCount);
+        for(int i = first; i < first + argCount; i++) {
+            arguments.add(stack[i]);
+        }
+        return function.call(interpreter, arguments);
+    }
+
+    // runs until the frame at index base returns
+    @SuppressWarnings("fallthrough")
+    private Object run(int base) {
+        CallFrame frame = frames[frameCount - 1];
+        int[] code = frame.chunk.code;
+        Token[] tokens = frame.chunk.tokens;
+        Object[] constants = frame.chunk.constants;
+        Environment environment = frame.environment;
+        int pc = frame.pc;
+        Object[] stack = this.stack;
+        int sp = this.sp;
+        Globals globals = interpreter.globals;
+        Watchdog watchdog = interpreter.watchdog;
+
+        while(true) {
+            switch(code[pc++]) {
+                case OpCode.CONSTANT:
+                    stack[sp++] = constants[code[pc++]];
+                    break;
+                case OpCode.NULL:
+                    stack[sp++] = null;
+                    break;
+                case OpCode.TRUE:
+                    stack[sp++] = true;
+                    break;
+                case OpCode.FALSE:
+                    stack[sp++] = false;
+                    break;
+                case OpCode.POP:
+                    stack[--sp] = null;
+                    break;
+                case OpCode.GET_LOCAL: {
+                    int depth = code[pc++];
+                    stack[sp++] = environment.getAt(depth, code[pc++]);
+                    break;
+                }
+                case OpCode.SET_LOCAL: {
+                    int depth = code[pc++];
+                    environment.assignAt(depth, code[pc++], stack[sp - 1]);
+                    break;
+                }
+                case OpCode.DEFINE_LOCAL:
+                    environment.define(code[pc++], stack[--sp]);
+                    break;
+                case OpCode.GET_CELL: {
+                    int depth = code[pc++];
+                    stack[sp++] = environment.getCell(depth, code[pc++]);
+                    break;
+                }
+                case OpCode.SET_CELL: {
+                    int depth = code[pc++];
+                    environment.assignCell(depth, code[pc++], stack[sp - 1]);
+                    break;
+                }
+                case OpCode.DEFINE_CELL:
+                    environment.defineCell(code[pc++], stack[--sp]);
+                    break;
+                case OpCode.BOX: {
+                    int slot = code[pc++];
+                    environment.slots[slot] = new Cell(environment.slots[slot]);
+                    break;
+                }
+                case OpCode.GET_GLOBAL:
+                    stack[sp++] = globals.get(code[pc++], tokens[pc - 1]);
+                    break;
+                case OpCode.SET_GLOBAL:
+                    globals.assign(code[pc++], tokens[pc - 1], stack[sp - 1]);
+                    break;
+                case OpCode.DEFINE_GLOBAL:
+                    globals.define(code[pc++], stack[--sp]);
+                    break;
+                case OpCode.EQUAL: {
+                    Object right = stack[--sp];
+                    stack[sp - 1] = Operators.isEqual(stack[sp - 1], right);
+                    break;
+                }
+                case OpCode.NOT_EQUAL: {
+                    Object right = stack[--sp];
+                    stack[sp - 1] = !Operators.isEqual(stack[sp - 1], right);
+                    break;
+                }
+                case OpCode.GREATER: {
+                    Object right = stack[--sp];
+                    stack[sp - 1] = Operators.greater(tokens[pc - 1], stack[sp - 1], right);
+                    break;
+                }
+                case OpCode.GREATER_EQUAL: {
+                    Object right = stack[--sp];
+                    stack[sp - 1] = Operators.greaterEqual(tokens[pc - 1], stack[sp - 1], right);
+                    break;
+                }
+                case OpCode.LESS: {
+                    Object right = stack[--sp];
+                    stack[sp - 1] = Operators.less(tokens[pc - 1], stack[sp - 1], right);
+                    break;
+                }
+                case OpCode.LESS_EQUAL: {
+                    Object right = stack[--sp];
+                    stack[sp - 1] = Operators.lessEqual(tokens[pc - 1], stack[sp - 1], right);
+                    break;
+                }
+                case OpCode.ADD: {
+                    Object right = stack[--sp];
+                    Object left = stack[sp - 1];
+                    Object result = Operators.add(tokens[pc - 1], left, right);
+                    if(ConcatString.isString(result)) watchdog.allocate(Watchdog.concatBytes(left, result));
+                    stack[sp - 1] = result;
+                    break;
+                }
+                case OpCode.SUBTRACT: {
+                    Object right = stack[--sp];
+                    stack[sp - 1] = Operators.subtract(tokens[pc - 1], stack[sp - 1], right);
+                    break;
+                }
+                case OpCode.MULTIPLY: {
+                    Object right = stack[--sp];
+                    stack[sp - 1] = Operators.multiply(tokens[pc - 1], stack[sp - 1], right);
+                    break;
+                }
+                case OpCode.DIVIDE: {
+                    Object right = stack[--sp];
+                    stack[sp - 1] = Operators.divide(tokens[pc - 1], stack[sp - 1], right);
+                    break;
+                }
+                case OpCode.NOT:
+                    stack[sp - 1] = !Operators.isTruthy(stack[sp - 1]);
+                    break;
+                case OpCode.NEGATE:
+                    stack[sp - 1] = Operators.negate(tokens[pc - 1], stack[sp - 1]);
+                    break;
+                case OpCode.JUMP:
+                    pc = code[pc];
+                    break;
+                case OpCode.LOOP:
+                    watchdog.step(tokens[pc]);
+                    pc = code[pc];
+                    // only the outermost run can stop, a nested one has a
+                    // Java caller waiting on it
+                    if(scheduled && --steps <= 0 && base == 0) {
+                        frame.pc = pc;
+                        frame.environment = environment;
+                        this.sp = sp;
+                        return SUSPENDED;
+                    }
+                    break;
+                case OpCode.JUMP_IF_FALSE: {
+                    int target = code[pc++];
+                    if(!Operators.isTruthy(stack[--sp])) pc = target;
+                    break;
+                }
+                case OpCode.AND: {
+                    int target = code[pc++];
+                    if(!Operators.isTruthy(stack[sp - 1])) {
+                        pc = target;
+                    } else {
+                        sp--;
+                    }
+                    break;
+                }
+                case OpCode.OR: {
+                    int target = code[pc++];
+                    if(Operators.isTruthy(stack[sp - 1])) {
+                        pc = target;
+                    } else {
+                        sp--;
+                    }
+                    break;
+                }
+                case OpCode.TAIL_CALL: {
+                    int argCount = code[pc];
+                    Object callee = stack[sp - argCount - 1];
+                    // anything else falls through to an ordinary call and
+                    // the RETURN after it
+                    if(callee instanceof VmFunction && ((VmFunction) callee).vm == this &&
+                            ((VmFunction) callee).chunk.arity == argCount) {
+                        VmFunction function = (VmFunction) callee;
+                        Chunk chunk = function.chunk;
+                        Token paren = tokens[pc++];
+                        // the depth stays the same, it's still a step
+                        watchdog.step(paren);
+                        interpreter.allocateFrame(chunk.frameSize);
+                        Profiler profiler = interpreter.profiler;
+                        if(profiler != null) profiler.replace(function, paren);
+                        Environment calleeEnvironment = new Environment(function.closure, chunk.frameSize);
+                        System.arraycopy(stack, sp - argCount, calleeEnvironment.slots, 0, argCount);
+                        sp -= argCount + 1;
+
+                        // the callee takes over this frame
+                        if(frame.metrics != null) frame.metrics.record(System.nanoTime() - frame.start);
+                        frame.metrics = null;
+                        startMetrics(frame, chunk);
+                        if(sp + chunk.maxStack + 1 >= stack.length) {
+                            ensureStack(sp, chunk);
+                            stack = this.stack;
+                        }
+                        frame.chunk = chunk;
+                        code = chunk.code;
+                        tokens = chunk.tokens;
+                        constants = chunk.constants;
+                        environment = calleeEnvironment;
+                        pc = 0;
+                        if(scheduled && --steps <= 0 && base == 0) {
+                            frame.pc = pc;
+                            frame.environment = environment;
+                            this.sp = sp;
+                            return SUSPENDED;
+                        }
+                        break;
+                    }
+                    // fall through
+                }
+                case OpCode.CALL: {
+                    int argCount = code[pc++];
+                    Token paren = tokens[pc - 1];
+                    Object callee = stack[sp - argCount - 1];
+
+                    if(callee instanceof VmFunction && ((VmFunction) callee).vm == this) {
+                        VmFunction function = (VmFunction) callee;
+                        Chunk chunk = function.chunk;
+                        if(argCount != chunk.arity) {
+                            throw new RuntimeError(paren, "Expected " + chunk.arity +
+                                    " arguments but got " + argCount);
+                        }
+
+                        watchdog.enter(paren);
+                        interpreter.allocateFrame(chunk.frameSize);
+                        Profiler profiler = interpreter.profiler;
+                        if(profiler != null) profiler.enter(function, paren);
+                        Environment calleeEnvironment = new Environment(function.closure, chunk.frameSize);
+                        System.arraycopy(stack, sp - argCount, calleeEnvironment.slots, 0, argCount);
+                        sp -= argCount + 1;
+
+                        frame.pc = pc;
+                        frame.environment = environment;
+                        if(sp + chunk.maxStack + 1 >= stack.length) {
+                            ensureStack(sp, chunk);
+                            stack = this.stack;
+                        }
+                        frame = pushFrame(chunk, calleeEnvironment);
+                        code = chunk.code;
+                        tokens = chunk.tokens;
+                        constants = chunk.constants;
+                        environment = calleeEnvironment;
+                        pc = 0;
+                        if(scheduled && --steps <= 0 && base == 0) {
+                            frame.environment = environment;
+                            this.sp = sp;
+                            return SUSPENDED;
+                        }
+                        break;
+                    }
+
+                    if(!(callee instanceof ZunuCallable)) {
+                        throw new RuntimeError(paren, "Can only call functions and classes.");
+                    }
+
+                    ZunuCallable function = (ZunuCallable) callee;
+                    if(function.arity() != -1 && argCount != function.arity()) {
+                        throw new RuntimeError(paren, "Expected " + function.arity() +
+                                " arguments but got " + argCount);
+                    }
+
+                    int first = sp - argCount;
+                    sp -= argCount + 1;
+
+                    // the callee may run more VM code on top of this frame
+                    frame.pc = pc;
+                    frame.environment = environment;
+                    this.sp = sp;
+                    Object result;
+                    watchdog.enter(paren);
+                    Profiler profiler = interpreter.profiler;
+                    if(profiler != null) profiler.enter(function, paren);
+                    try {
+                        result = callOther(function, stack, first, argCount);
+                    } catch(RuntimeError e) {
+                        throw e.at(paren);
+                    } finally {
+                        watchdog.exit();
+                        if(profiler != null) profiler.exit();
+                    }
+                    stack = this.stack;
+                    stack[sp++] = result;
+                    break;
+                }
+                case OpCode.CLOSURE: {
+                    Chunk chunk = (Chunk) constants[code[pc++]];
+                    VmFunction function = chunk.instance;
+                    if(function == null || function.vm != this) {
+                        Environment closure = Environment.capture(environment, chunk.captureDepths, chunk.captureSlots);
+                        function = new VmFunction(chunk, closure, this);
+                        watchdog.allocate(Watchdog.CLOSURE_BYTES);
+                        if(closure == null) chunk.instance = function;
+                    }
+                    stack[sp++] = function;
+                    break;
+                }
+                case OpCode.PUSH_FRAME:
+                    interpreter.allocateFrame(code[pc]);
+                    environment = new Environment(environment, code[pc++]);
+                    break;
+                case OpCode.POP_FRAME:
+                    environment = environment.enclosing;
+                    break;
+                case OpCode.RETURN: {
+                    Object result = stack[--sp];
+                    if(frame.metrics != null) frame.metrics.record(System.nanoTime() - frame.start);
+                    frame.environment = null;
+                    frameCount--;
+                    if(frameCount == base) {
+                        this.sp = sp;
+                        return result;
+                    }
+
+                    // back in a caller that pushed this frame with CALL
+                    watchdog.exit();
+                    Profiler profiler = interpreter.profiler;
+                    if(profiler != null) profiler.exit();
+                    frame = frames[frameCount - 1];
+                    code = frame.chunk.code;
+                    tokens = frame.chunk.tokens;
+                    constants = frame.chunk.constants;
+                    environment = frame.environment;
+                    pc = frame.pc;
+                    stack[sp++] = result;
+                    break;
+                }
+                default:
+                    throw new IllegalStateException("Unknown opcode " + code[pc - 1]);
+            }
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package me.ghostlyzsh.zunu.zunu;
+
+import java.util.List;
+
+public class VmFunction implements ZunuCallable {
+    final Chunk chunk;
+    final Environment closure;
+    final VM vm;
+
+    VmFunction(Chunk chunk, Environment closure, VM vm) {
+        this.chunk = chunk;
+        this.closure = closure;
+        this.vm = vm;
+    }
+
+    @Override
+    public String toString() {
+        if(chunk.name == null) return "<anon fn>";
+        return "<fn " + chunk.name + ">";
+    }
+
+    @Override
+    public int arity() {
+        return chunk.arity;
+    }
+
+    @Override
+    public Object call(Interpreter interpreter, List<Object> arguments) {
+        return vm.call(this, arguments);
+    }
+}
@@ -0,0 +1,83 @@
+package me.ghostlyzsh.zunu.zunu;
+
+// Limits on one run of a script, so a runaway script fails with a runtime
+// error instead of hanging or crashing the server. Every engine takes a
+// step on each loop back-edge and each call, which is where the limits are
+// checked. Allocations are only added up as they happen and the total is
+// checked at the next step, so keeping count stays cheap. A step also fails
+// when the thread was interrupted, which is how an async run is cancelled.
+final class Watchdog {
+    // rough heap sizes, the budget doesn't need to be exact
+    static final long CLOSURE_BYTES = 24;
+
+    private long maxSteps = Long.MAX_VALUE;
+    private int maxDepth = Integer.MAX_VALUE;
+    private long maxBytes = Long.MAX_VALUE;
+
+    private long steps = 0;
+    private int depth = 0;
+    private long bytes = 0;
+
+    // 0 turns a limit off
+    void limit(long maxSteps, int maxDepth, long maxBytes) {
+        this.maxSteps = maxSteps > 0 ? maxSteps : Long.MAX_VALUE;
+        this.maxDepth = maxDepth > 0 ? maxDepth : Integer.MAX_VALUE;
+        this.maxBytes = maxBytes > 0 ? maxBytes : Long.MAX_VALUE;
+    }
+
+    void limit(Watchdog other) {
+        this.maxSteps = other.maxSteps;
+        this.maxDepth = other.maxDepth;
+        this.maxBytes = other.maxBytes;
+    }
+
+    // called when a run starts, depth is how many calls are already active
+    // when a suspended script resumes
+    void reset(int depth) {
+        steps = 0;
+        bytes = 0;
+        this.depth = depth;
+    }
+
+    void step(Token token) {
+        if(++steps > maxSteps || bytes > maxBytes || Thread.currentThread().isInterrupted()) fail(token);
+    }
+
+    void enter(Token token) {
+        if(++depth > maxDepth) {
+            throw new RuntimeError(token, "Call depth went over " + maxDepth + ".");
+        }
+        step(token);
+    }
+
+    void exit() {
+        depth--;
+    }
+
+    void allocate(long bytes) {
+        this.bytes += bytes;
+    }
+
+    static long frameBytes(int slots) {
+        return 32 + 4L * slots;
+    }
+
+    // the result of adding two strings, appending in place only grows the
+    // builder
+    static long concatBytes(Object left, Object result) {
+        if(ConcatString.appended(left, result)) {
+            return 24 + ConcatString.length(result) - ConcatString.length(left);
+        }
+        return 40 + ConcatString.length(result);
+    }
+
+    private void fail(Token token) {
+        if(Thread.currentThread().isInterrupted()) {
+            throw new RuntimeError(token, "Script was stopped.");
+        }
+        if(bytes > maxBytes) {
+            throw new RuntimeError(token, "Script allocated more than " + maxBytes / (1024 * 1024) + " MB.");
+        }
+        throw new RuntimeError(token, "Script ran more than " + maxSteps + " steps.");
+    }
+}
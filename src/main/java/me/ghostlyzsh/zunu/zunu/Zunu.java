@@ -6,25 +6,66 @@ import org.bukkit.plugin.java.JavaPlugin;
 
 import java.io.File;
 import java.io.IOException;
-import java.nio.charset.Charset;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.logging.Level;
 
 public final class Zunu extends JavaPlugin {
-    private static final HashMap<String, Interpreter> interpreters = new HashMap<>();
-    static HashMap<String, Boolean> hadError = new HashMap<>();
-    static HashMap<String, Boolean> hadRuntimeError = new HashMap<>();
+    // scripts are scanned and parsed on worker threads and async scripts
+    // run on them, so these are written to from several threads at once
+    private static final Map<String, Interpreter> interpreters = new ConcurrentHashMap<>();
+    static final Map<String, Boolean> hadError = new ConcurrentHashMap<>();
+    static final Map<String, Boolean> hadRuntimeError = new ConcurrentHashMap<>();
 
-    static HashMap<String, byte[]> sources = new HashMap<>();
+    static final Map<String, byte[]> sources = new ConcurrentHashMap<>();
+    private static final Map<String, LineIndex> lineIndexes = new ConcurrentHashMap<>();
+    // scripts the profiler is on for, kept across reloads
+    private static final Map<String, Profiler> profilers = new ConcurrentHashMap<>();
+    // per script counters, kept across reloads, empty with metrics off
+    private static final Map<String, ScriptMetrics> metrics = new ConcurrentHashMap<>();
+    private static volatile boolean metricsEnabled = true;
+
+    private static volatile boolean useCache = true;
+    private ScriptWatcher watcher;
+    // null unless scripts run a slice per tick
+    private static volatile TickScheduler scheduler;
+    // runs scripts using the async engine
+    private static volatile AsyncExecutor async;
+    // startup time spent parsing scripts against loading them from the cache
+    private static final LongAdder parseNanos = new LongAdder();
+    private static final LongAdder cacheNanos = new LongAdder();
+    private static final LongAdder parses = new LongAdder();
+    private static final LongAdder cacheLoads = new LongAdder();
 
     @Override
     public void onEnable() {
         // Plugin startup logic
         String[] pathnames;
 
+        saveDefaultConfig();
+        ScriptLog.logger = getServer().getLogger();
+        JitCompiler.threshold = getConfig().getInt("jit-threshold", 1000);
+        Optimizer.enabled = getConfig().getBoolean("optimize", true);
+        useCache = getConfig().getBoolean("script-cache", true);
+        metricsEnabled = getConfig().getBoolean("metrics", true);
+        int parseThreads = getConfig().getInt("parse-threads", Runtime.getRuntime().availableProcessors());
+        if(getConfig().getBoolean("scheduler.enabled", false)) {
+            scheduler = new TickScheduler(getConfig().getInt("scheduler.steps-per-tick", 100000),
+                    getConfig().getLong("scheduler.millis-per-tick", 10));
+            getServer().getScheduler().runTaskTimer(this, scheduler, 1, 1);
+        }
+        async = new AsyncExecutor(getConfig().getInt("async-threads", Runtime.getRuntime().availableProcessors()));
+        getCommand("zunu").setExecutor(new ZunuCommand(this));
+
         // Get zunu directory, if it doesn't exist, then create it.
         File f = new File("plugins/Zunu");
         if(!Files.exists(Paths.get("plugins/Zunu"))) {
@@ -46,6 +87,8 @@ public final class Zunu extends JavaPlugin {
             this.getLogger().log(Level.SEVERE, "Something went wrong in loading files.");
             this.getPluginLoader().disablePlugin(this);
         }
+        // scripts run in name order, whatever order the directory lists them in
+        Collections.sort(filenames);
         // Convert each filename to a path, this is used to get the content of files
         List<Path> filepaths = new ArrayList<>();
         for (String fn: filenames) {
@@ -62,40 +105,237 @@ public final class Zunu extends JavaPlugin {
             }
         }
 
-        // Add file contents to a sources map and run the files
+        // Add file contents to a sources map and parse the files on a worker pool
+        ExecutorService pool = parserPool(Math.min(Math.max(parseThreads, 1), Math.max(contentStrings.size(), 1)));
+        List<Future<List<Stmt>>> parsed = new ArrayList<>();
         for(int i = 0; i < contentStrings.size(); i++) {
-            sources.put(filenames.get(i), contentStrings.get(i));
-            runFile(contentStrings.get(i), filenames.get(i));
+            byte[] bytes = contentStrings.get(i);
+            String name = filenames.get(i);
+            // Each file defaults to having no errors
+            sources.put(name, bytes);
+            hadError.put(name, false);
+            hadRuntimeError.put(name, false);
+            parsed.add(pool.submit(() -> load(bytes, name)));
+        }
+        pool.shutdown();
+
+        // Run the files on this thread, in the same order every time
+        for(int i = 0; i < parsed.size(); i++) {
+            String name = filenames.get(i);
+            List<Stmt> statements;
+            try {
+                statements = parsed.get(i).get();
+            } catch(ExecutionException e) {
+                this.getLogger().log(Level.SEVERE, "Could not parse " + name, e.getCause());
+                continue;
+            } catch(InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+            if(statements != null) runFile(statements, name, engine(name));
         }
+        this.getLogger().info(String.format("Parsed %d scripts in %.2f ms, loaded %d from the cache in %.2f ms",
+                parses.sum(), parseNanos.sum() / 1e6, cacheLoads.sum(), cacheNanos.sum() / 1e6));
+
+        // reload scripts when their files change
+        if(getConfig().getBoolean("hot-reload", true)) {
+            try {
+                watcher = new ScriptWatcher(this, f.toPath(), getConfig().getLong("reload-debounce-ms", 250));
+                watcher.start();
+            } catch(IOException e) {
+                this.getLogger().log(Level.WARNING, "Could not watch plugins/Zunu, scripts won't hot reload", e);
+            }
+        }
+    }
+
+    private static ExecutorService parserPool(int threads) {
+        AtomicInteger count = new AtomicInteger();
+        return Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "Zunu Parser #" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    Engine engine(String filename) {
+        String script = filename.substring(0, filename.length() - ".zn".length());
+        String engine = getConfig().getString("scripts." + script + ".engine",
+                getConfig().getString("engine", "tree"));
+        try {
+            return Engine.valueOf(engine.toUpperCase(Locale.ROOT));
+        } catch(IllegalArgumentException e) {
+            this.getLogger().log(Level.WARNING, "Unknown engine '" + engine + "' for " + filename + ", using tree.");
+            return Engine.TREE;
+        }
+    }
+
+    // the watchdog limits for a script, a script's own settings override
+    // the ones for every script
+    void limit(Watchdog watchdog, String filename) {
+        String script = filename.substring(0, filename.length() - ".zn".length());
+        watchdog.limit(getConfig().getLong("scripts." + script + ".limits.max-steps",
+                        getConfig().getLong("limits.max-steps", 0)),
+                getConfig().getInt("scripts." + script + ".limits.max-call-depth",
+                        getConfig().getInt("limits.max-call-depth", 0)),
+                getConfig().getLong("scripts." + script + ".limits.max-allocation-mb",
+                        getConfig().getLong("limits.max-allocation-mb", 0)) * 1024 * 1024);
+    }
+
+    static void runFile(List<Stmt> statements, String name, Engine engine) {
+        // resolve every variable to the scope it lives in
+        Interpreter interpreter = new Interpreter();
+        getPlugin(Zunu.class).limit(interpreter.watchdog, name);
+        Profiler profiler = profilers.get(name);
+        if(profiler != null) profiler.attach(interpreter);
+        if(metricsEnabled) interpreter.metrics = metrics.computeIfAbsent(name, ScriptMetrics::new);
+        Resolver resolver = new Resolver(interpreter, name);
+        resolver.resolve(statements);
+
+        if(hadError.get(name)) return;
+
+        // interpret the file from the AST generated, a reloaded script
+        // replaces the old one here
+        interpreters.put(name, interpreter);
+        if(engine == Engine.ASYNC) {
+            async.submit(name, interpreter, statements);
+        } else if(scheduler != null) {
+            // scheduled scripts need the VM to stop and resume
+            scheduler.submit(name, new VM(interpreter), BytecodeCompiler.compile(statements));
+        } else if(engine == Engine.VM) {
+            Chunk script = BytecodeCompiler.compile(statements);
+            new VM(interpreter).interpret(script, name);
+        } else {
+            interpreter.interpreter(statements, name);
+        }
+    }
+
+    // false if the script is already being profiled
+    static boolean startProfiler(String name, long intervalMillis) {
+        Profiler profiler = new Profiler(name);
+        if(profilers.putIfAbsent(name, profiler) != null) return false;
+        Interpreter interpreter = interpreters.get(name);
+        if(interpreter != null) profiler.attach(interpreter);
+        profiler.start(intervalMillis);
+        return true;
+    }
+
+    // the stopped profiler, or null if the script wasn't being profiled
+    static Profiler stopProfiler(String name) {
+        Profiler profiler = profilers.remove(name);
+        if(profiler != null) profiler.stop();
+        return profiler;
+    }
+
+    // the metrics of every script that has run, sorted by name
+    static List<ScriptMetrics> metrics() {
+        List<ScriptMetrics> scripts = new ArrayList<>(metrics.values());
+        scripts.sort(Comparator.comparing(script -> script.name));
+        return scripts;
+    }
+
+    static ScriptMetrics metrics(String name) {
+        return metrics.get(name);
+    }
+
+    // called when a script's file is deleted
+    static void unload(String name) {
+        if(scheduler != null) scheduler.cancel(name);
+        if(async != null) async.cancel(name);
+        interpreters.remove(name);
+        sources.remove(name);
+        lineIndexes.remove(name);
+        getPlugin(Zunu.class).getLogger().info("Unloaded " + name);
     }
 
-    private static void runFile(byte[] bytes, String name) {
-        // Each file defaults to having no errors
+    // load for a script that changed while it may still be running. Errors
+    // are reported against the new source while it is parsed, if it doesn't
+    // load the running version gets back its source, line index and error
+    // flags
+    static List<Stmt> reload(byte[] bytes, String name) {
+        byte[] source = sources.get(name);
+        LineIndex lines = lineIndexes.get(name);
+        Boolean error = hadError.get(name);
+        Boolean runtimeError = hadRuntimeError.get(name);
+
+        sources.put(name, bytes);
+        lineIndexes.remove(name);
         hadError.put(name, false);
         hadRuntimeError.put(name, false);
+        List<Stmt> statements = load(bytes, name);
+        if(statements != null) return statements;
 
-        run(new String(bytes, Charset.defaultCharset()), name);
+        if(source != null) {
+            sources.put(name, source);
+        } else {
+            sources.remove(name);
+        }
+        if(lines != null) {
+            lineIndexes.put(name, lines);
+        } else {
+            lineIndexes.remove(name);
+        }
+        if(error != null) hadError.put(name, error);
+        if(runtimeError != null) hadRuntimeError.put(name, runtimeError);
+        return null;
     }
 
-    private static void run(String source, String name) {
+    // the parsed script, from the cache if the source hasn't changed since
+    // it was last parsed, or null if it has errors
+    static List<Stmt> load(byte[] bytes, String name) {
+        Path cache = ScriptCache.path(name);
+        long start = System.nanoTime();
+        if(useCache) {
+            List<Stmt> statements = ScriptCache.load(cache, bytes, Optimizer.enabled);
+            if(statements != null) {
+                cacheNanos.add(System.nanoTime() - start);
+                cacheLoads.increment();
+                // whatever was scanned last under the name isn't this source
+                lineIndexes.remove(name);
+                return statements;
+            }
+        }
+
+        List<Stmt> statements = parse(bytes, name);
+        if(statements == null) return null;
+        parseNanos.add(System.nanoTime() - start);
+        parses.increment();
+
+        if(useCache) {
+            try {
+                ScriptCache.save(cache, bytes, Optimizer.enabled, statements);
+            } catch(IOException e) {
+                getPlugin(Zunu.class).getLogger().log(Level.WARNING, "Could not cache " + name + ": " + e.getMessage());
+            }
+        }
+        return statements;
+    }
+
+    private static List<Stmt> parse(byte[] source, String name) {
         // pass the source through the lexer/scanner
         Scanner scanner = new Scanner(source, name);
-        List<Token> tokens = scanner.scanTokens();
+        TokenBuffer tokens = scanner.scanTokens();
+        lineIndexes.put(name, scanner.lines());
 
         // handle lexing errors
-        if(hadError.get(name)) return;
+        if(hadError.get(name)) return null;
 
         // parse the list of tokens
         Parser parser = new Parser(tokens, name);
         List<Stmt> statements = parser.parse();
 
         // more error handling
-        if(hadError.get(name)) return;
-        if(hadRuntimeError.get(name)) return;
+        if(hadError.get(name)) return null;
+        if(hadRuntimeError.get(name)) return null;
 
-        // interpret the file from the AST generated
-        interpreters.put(name, new Interpreter());
-        interpreters.get(name).interpreter(statements, name);
+        // fold constants and drop code that can't run
+        if(Optimizer.enabled) {
+            Optimizer optimizer = new Optimizer();
+            statements = optimizer.optimize(statements);
+            // per script, so only at FINE
+            getPlugin(Zunu.class).getLogger().fine("Optimizer removed " + optimizer.removed +
+                    " nodes from " + name);
+        }
+        return statements;
     }
 
     static void error(int line, int start, String message, String name) {
@@ -103,42 +343,53 @@ public final class Zunu extends JavaPlugin {
     }
 
     private static void report(int line, int start, String where, String message, String name) {
-        // first find the start and end of the line
-        int end = start;
-        int realStart = start;
-        while(Zunu.sources.get(name)[realStart] != '\n' && realStart > -1) {
-            realStart--;
-        }
-        while(Zunu.sources.get(name)[end] != '\n' && end < Zunu.sources.get(name).length) {
-            end++;
-        }
-        // take a substring of the line
-        String lineStr = new String(Arrays.copyOfRange(Zunu.sources.get(name), realStart, end)).trim();
+        byte[] source = sources.get(name);
+        LineIndex lines = lineIndex(name);
+        // the text of the line the error starts in
+        String lineStr = lines.text(source, lines.line(start)).trim();
 
-        getPlugin(Zunu.class).getServer().getLogger().log(Level.SEVERE, "\u001b[31m" + "Error" + where + ": " + message + "\u001b[34m\n" +
-                "--> " + name + " : line " + line + "\n" +
+        ScriptLog.logger.log(Level.SEVERE, "\u001b[31m" + "Error" + where + ": " + message + "\u001b[34m\n" +
+                "--> " + name + " : line " + line + ", column " + lines.column(start) + "\n" +
                 "\t|\n" +
                 line + "\t|\t\u001b[0m" + lineStr + "\n" +
                 "\u001b[34m\t|\u001b[0m");
         hadError.put(name, true);
     }
 
+    // scripts loaded from the cache were never scanned, their index is
+    // built the first time they report an error
+    private static LineIndex lineIndex(String name) {
+        return lineIndexes.computeIfAbsent(name, script -> LineIndex.of(sources.get(script)));
+    }
+
     static void error(Token token, String message, String name) {
         if(token.type == TokenType.EOF) {
             report(token.line, token.start, " at end", message, name);
         } else {
-            report(token.line, token.start, " at '" + token.lexeme + "'", message, name);
+            report(token.line, token.start, " at '" + token.lexeme() + "'", message, name);
         }
     }
 
     static void runtimeError(RuntimeError error, String name) {
-        getPlugin(Zunu.class).getServer().getLogger().log(Level.SEVERE, "\u001b[31m" +
-                "[line " + error.token.line + "] " + error.getMessage() + "\u001b[0m");
+        byte[] source = sources.get(name);
+        LineIndex lines = lineIndex(name);
+        String lineStr = lines.text(source, lines.line(error.token.start)).trim();
+
+        ScriptLog.logger.log(Level.SEVERE, "\u001b[31m" +
+                "[line " + error.token.line + "] " + error.getMessage() + "\u001b[0m\n" +
+                "\t|\t" + lineStr);
         hadRuntimeError.put(name, true);
+        ScriptMetrics script = metrics.get(name);
+        if(script != null) script.error();
     }
 
     @Override
     public void onDisable() {
         // Plugin shutdown logic
+        if(watcher != null) watcher.stop();
+        if(async != null) async.shutdown();
+        metrics.clear();
+        ScriptMetrics.unregisterAll();
+        this.getLogger().info(BinarySpecialization.summary());
     }
 }
@@ -2,7 +2,7 @@ package me.ghostlyzsh.zunu.zunu;
 
 import java.util.List;
 
-public class ZunuAnonFunction implements ZunuCallable {
+public class ZunuAnonFunction implements FrameCallable {
     private final Expr.AnonFn declaration;
     private final Environment closure;
 
@@ -23,16 +23,29 @@ public class ZunuAnonFunction implements ZunuCallable {
 
     @Override
     public Object call(Interpreter interpreter, List<Object> arguments) {
-        Environment environment = new Environment(closure);
+        Environment frame = newFrame();
         for(int i = 0; i < declaration.params.size(); i++) {
-            environment.define(declaration.params.get(i).lexeme,
-                    arguments.get(i));
+            frame.define(i, arguments.get(i));
         }
+        return invoke(interpreter, frame);
+    }
+
+    @Override
+    public Environment newFrame() {
+        return new Environment(closure, declaration.frameSize);
+    }
 
-        try {
-            interpreter.executeBlock(declaration.body, environment);
-        } catch(Return returnValue) {
-            return returnValue.value;
+    @Override
+    public FunctionMetrics metrics(ScriptMetrics script) {
+        if(declaration.metrics == null) declaration.metrics = script.function(toString());
+        return declaration.metrics;
+    }
+
+    @Override
+    public Object run(Interpreter interpreter, Environment frame) {
+        frame.box(declaration.cells);
+        if(interpreter.executeBlock(declaration.body, frame) == Completion.RETURN) {
+            return interpreter.takeReturnValue();
         }
         return null;
     }
@@ -1,8 +1,27 @@
 package me.ghostlyzsh.zunu.zunu;
 
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
 public interface ZunuCallable {
     int arity();
     Object call(Interpreter interpreter, List<Object> arguments);
+
+    // fixed-arity entry points, natives override them to skip the list
+    default Object call0(Interpreter interpreter) {
+        return call(interpreter, Collections.emptyList());
+    }
+
+    default Object call1(Interpreter interpreter, Object a) {
+        return call(interpreter, Collections.singletonList(a));
+    }
+
+    default Object call2(Interpreter interpreter, Object a, Object b) {
+        return call(interpreter, Arrays.asList(a, b));
+    }
+
+    default Object call3(Interpreter interpreter, Object a, Object b, Object c) {
+        return call(interpreter, Arrays.asList(a, b, c));
+    }
 }
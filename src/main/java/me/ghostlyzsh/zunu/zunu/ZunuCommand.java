@@ -0,0 +1,106 @@
+package me.ghostlyzsh.zunu.zunu;
+
+import org.bukkit.command.Command;
+import org.bukkit.command.CommandExecutor;
+import org.bukkit.command.CommandSender;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Comparator;
+import java.util.List;
+
+// The /zunu command
+class ZunuCommand implements CommandExecutor {
+    // functions listed by /zunu stats <script>
+    private static final int STATS_FUNCTIONS = 10;
+
+    private final Zunu plugin;
+
+    ZunuCommand(Zunu plugin) {
+        this.plugin = plugin;
+    }
+
+    @Override
+    public boolean onCommand(CommandSender sender, Command command, String label, String[] args) {
+        if(args.length == 0) return false;
+        switch(args[0]) {
+            case "profile":
+                return profile(sender, args);
+            case "stats":
+                return stats(sender, args);
+        }
+        return false;
+    }
+
+    // /zunu stats [script]
+    private boolean stats(CommandSender sender, String[] args) {
+        if(args.length == 1) {
+            List<ScriptMetrics> scripts = Zunu.metrics();
+            if(scripts.isEmpty()) {
+                sender.sendMessage("No script has run with metrics on");
+                return true;
+            }
+            for(ScriptMetrics script : scripts) {
+                sender.sendMessage(String.format("%s: %d runs, avg %.2f ms, p99 %.2f ms, %d errors, %d frames",
+                        script.name, script.getRuns(), script.getAverageMillis(), script.getP99Millis(),
+                        script.getErrors(), script.getFrames()));
+            }
+            return true;
+        }
+        if(args.length != 2) return false;
+
+        String name = args[1].endsWith(".zn") ? args[1] : args[1] + ".zn";
+        ScriptMetrics script = Zunu.metrics(name);
+        if(script == null) {
+            sender.sendMessage(name + " hasn't run with metrics on");
+            return true;
+        }
+        // the functions that took the longest altogether first
+        List<FunctionMetrics> functions = script.functions();
+        functions.sort(Comparator.comparingDouble(FunctionMetrics::getTotalMillis).reversed());
+        sender.sendMessage(String.format("%s: %d runs, %.2f ms total, %d errors, %d frames",
+                name, script.getRuns(), script.getTotalMillis(), script.getErrors(), script.getFrames()));
+        for(FunctionMetrics function : functions.subList(0, Math.min(functions.size(), STATS_FUNCTIONS))) {
+            sender.sendMessage(String.format("  %s: %d calls, %.2f ms total, avg %.2f us, p99 %.2f us, %d errors",
+                    function.name, function.getInvocations(), function.getTotalMillis(),
+                    function.getAverageMicros(), function.getP99Micros(), function.getErrors()));
+        }
+        return true;
+    }
+
+    // /zunu profile <script> start|stop
+    private boolean profile(CommandSender sender, String[] args) {
+        if(args.length != 3) return false;
+        String name = args[1].endsWith(".zn") ? args[1] : args[1] + ".zn";
+        if(!Zunu.sources.containsKey(name)) {
+            sender.sendMessage("There is no script called " + name);
+            return true;
+        }
+
+        switch(args[2]) {
+            case "start":
+                if(Zunu.startProfiler(name, plugin.getConfig().getLong("profiler.interval-ms", 10))) {
+                    sender.sendMessage("Profiling " + name);
+                } else {
+                    sender.sendMessage(name + " is already being profiled");
+                }
+                return true;
+            case "stop":
+                Profiler profiler = Zunu.stopProfiler(name);
+                if(profiler == null) {
+                    sender.sendMessage(name + " isn't being profiled");
+                    return true;
+                }
+                Path path = Paths.get("plugins/Zunu/profiles", name.substring(0, name.length() - ".zn".length()) + ".collapsed");
+                try {
+                    int samples = profiler.write(path);
+                    sender.sendMessage("Wrote " + samples + " samples of " + name + " to " + path);
+                } catch(IOException e) {
+                    sender.sendMessage("Could not write " + path + ": " + e.getMessage());
+                }
+                return true;
+        }
+        return false;
+    }
+}
@@ -2,7 +2,7 @@ package me.ghostlyzsh.zunu.zunu;
 
 import java.util.List;
 
-public class ZunuFunction implements ZunuCallable {
+public class ZunuFunction implements FrameCallable {
     private final Stmt.Function declaration;
     private final Environment closure;
 
@@ -11,9 +11,13 @@ public class ZunuFunction implements ZunuCallable {
         this.declaration = declaration;
     }
 
+    String name() {
+        return declaration.name.lexeme();
+    }
+
     @Override
     public String toString() {
-        return "<fn " + declaration.name.lexeme + ">";
+        return "<fn " + declaration.name.lexeme() + ">";
     }
 
     @Override
@@ -23,16 +27,42 @@ public class ZunuFunction implements ZunuCallable {
 
     @Override
     public Object call(Interpreter interpreter, List<Object> arguments) {
-        Environment environment = new Environment(closure);
+        Environment frame = newFrame();
         for(int i = 0; i < declaration.params.size(); i++) {
-            environment.define(declaration.params.get(i).lexeme,
-                    arguments.get(i));
+            frame.define(i, arguments.get(i));
+        }
+        return invoke(interpreter, frame);
+    }
+
+    @Override
+    public Environment newFrame() {
+        return new Environment(closure, declaration.frameSize);
+    }
+
+    @Override
+    public FunctionMetrics metrics(ScriptMetrics script) {
+        if(declaration.metrics == null) declaration.metrics = script.function(name());
+        return declaration.metrics;
+    }
+
+    @Override
+    public Object run(Interpreter interpreter, Environment frame) {
+        frame.box(declaration.cells);
+        CompiledFunction compiled = declaration.compiled;
+        if(compiled == null && declaration.calls < JitCompiler.threshold) {
+            // compile once the function is hot, if that fails it stays interpreted
+            if(++declaration.calls == JitCompiler.threshold) {
+                compiled = JitCompiler.compile(declaration);
+                declaration.compiled = compiled;
+            }
+        }
+        if(compiled != null) {
+            // the arguments are the first slots of the frame
+            return compiled.invoke(interpreter, frame.slots);
         }
 
-        try {
-            interpreter.executeBlock(declaration.body, environment);
-        } catch(Return returnValue) {
-            return returnValue.value;
+        if(interpreter.executeBlock(declaration.body, frame) == Completion.RETURN) {
+            return interpreter.takeReturnValue();
         }
         return null;
     }